@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui.models;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.AbstractListModel;
+import javax.swing.JList;
+import javax.swing.ListCellRenderer;
+import javax.swing.ListModel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.janbuchinger.code.mishmash.dbo.DBOLabel;
+
+/**
+ * Measures <code>getSize</code> and <code>getElementAt</code> the way a
+ * <code>JList</code> calls them while painting, for the
+ * <code>ArrayList</code> backed <code>DBOLabelListModel</code> and for a model
+ * backed by a <code>Vector</code> like before.
+ * <p>
+ * Every invocation paints one viewport of rows and scrolls on by one viewport.
+ * <code>scroll</code> only reads the rows, <code>render</code> also passes
+ * them through the cell renderer of the list.
+ *
+ * @author Jan Buchinger
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ListModelBenchmark {
+	private final static int VISIBLE = 40;
+
+	@Param({ "10000", "1000000" })
+	private int size;
+
+	@Param({ "arrayList", "vector" })
+	private String storage;
+
+	private ListModel<DBOLabel> model;
+	private JList<DBOLabel> list;
+	private ListCellRenderer<? super DBOLabel> renderer;
+	private int first;
+
+	@Setup
+	public void setUp() {
+		Vector<DBOLabel> data = new Vector<DBOLabel>(size);
+		for (int i = 0; i < size; i++) {
+			data.add(new DBOLabel(i, "Eintrag " + i));
+		}
+		model = storage.equals("vector") ? new VectorListModel(data) : new DBOLabelListModel(data);
+		list = new JList<DBOLabel>(model);
+		renderer = list.getCellRenderer();
+		first = 0;
+	}
+
+	@Benchmark
+	public void scroll(Blackhole bh) {
+		int n = model.getSize();
+		int last = Math.min(first + VISIBLE, n);
+		for (int i = first; i < last; i++) {
+			bh.consume(model.getElementAt(i));
+		}
+		first = last == n ? 0 : last;
+	}
+
+	@Benchmark
+	public void render(Blackhole bh) {
+		int n = model.getSize();
+		int last = Math.min(first + VISIBLE, n);
+		for (int i = first; i < last; i++) {
+			bh.consume(renderer.getListCellRendererComponent(list, model.getElementAt(i), i, false, false));
+		}
+		first = last == n ? 0 : last;
+	}
+
+	/**
+	 * The storage of the list models before, every access takes the monitor of
+	 * the <code>Vector</code>.
+	 */
+	@SuppressWarnings("serial")
+	private final static class VectorListModel extends AbstractListModel<DBOLabel> {
+		private final Vector<DBOLabel> data;
+
+		private VectorListModel(Vector<DBOLabel> data) {
+			this.data = data;
+		}
+
+		@Override
+		public int getSize() {
+			return data.size();
+		}
+
+		@Override
+		public DBOLabel getElementAt(int index) {
+			return data.get(index);
+		}
+	}
+}
@@ -0,0 +1,534 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <code>DirectoryCopier</code> copies a directory tree recursively.
+ * <p>
+ * Small files are copied in parallel on a thread pool while large files are
+ * streamed one after another on the calling thread, so the disk is not
+ * thrashed by several large concurrent transfers. Files that exist in the
+ * target with the same length and modification time are skipped. In mirror
+ * mode files and directories that do not exist in the source are deleted from
+ * the target.
+ * <p>
+ * Symbolic links are not followed.
+ *
+ * @author Jan Buchinger
+ *
+ * @see FSFx#copyDirectory(File, File, DirectoryCopyListener)
+ * @see FSFx#mirrorDirectory(File, File, DirectoryCopyListener)
+ */
+public final class DirectoryCopier {
+	/**
+	 * Files of this length or larger are copied sequentially.
+	 */
+	public final static long DEFAULT_LARGE_FILE = 8 * 1024 * 1024;
+
+	private final Path source;
+	private final Path target;
+	private final boolean mirror;
+	private final int nThreads;
+	private final long largeFile;
+	private final DirectoryCopyListener listener;
+
+	private final AtomicInteger filesCopied;
+	private final AtomicInteger filesSkipped;
+	private final AtomicInteger filesDeleted;
+	private final TransferMeter meter;
+	private final List<File> failed;
+
+	private volatile boolean cancelled;
+
+	private int filesTotal;
+	private long bytesTotal;
+
+	/**
+	 * Constructs a new <code>DirectoryCopier</code> that uses one thread per
+	 * available processor.
+	 *
+	 * @param source
+	 *            The directory to copy.
+	 * @param target
+	 *            The directory to copy to. It is created if it does not exist.
+	 * @param mirror
+	 *            true to delete files and directories from the target that do
+	 *            not exist in the source.
+	 * @param listener
+	 *            The listener to notify about the progress or <code>null</code>.
+	 */
+	public DirectoryCopier(File source, File target, boolean mirror, DirectoryCopyListener listener) {
+		this(source, target, mirror, listener, Runtime.getRuntime().availableProcessors(), DEFAULT_LARGE_FILE);
+	}
+
+	/**
+	 * Constructs a new <code>DirectoryCopier</code>.
+	 *
+	 * @param source
+	 *            The directory to copy.
+	 * @param target
+	 *            The directory to copy to. It is created if it does not exist.
+	 * @param mirror
+	 *            true to delete files and directories from the target that do
+	 *            not exist in the source.
+	 * @param listener
+	 *            The listener to notify about the progress or <code>null</code>.
+	 * @param nThreads
+	 *            The number of threads copying small files.
+	 * @param largeFile
+	 *            The length from which files are copied sequentially.
+	 */
+	public DirectoryCopier(File source, File target, boolean mirror, DirectoryCopyListener listener,
+			int nThreads, long largeFile) {
+		if (nThreads < 1) {
+			throw new IllegalArgumentException("nThreads < 1");
+		}
+		this.source = source.toPath().toAbsolutePath();
+		this.target = target.toPath().toAbsolutePath();
+		this.mirror = mirror;
+		this.listener = listener;
+		this.nThreads = nThreads;
+		this.largeFile = largeFile;
+		filesCopied = new AtomicInteger();
+		filesSkipped = new AtomicInteger();
+		filesDeleted = new AtomicInteger();
+		meter = new TransferMeter();
+		failed = Collections.synchronizedList(new ArrayList<File>());
+		cancelled = false;
+	}
+
+	/**
+	 * Copies the directory tree. This method blocks until all files are copied.
+	 *
+	 * @return true only if all files were copied (or skipped as unchanged), the
+	 *         copying was not cancelled and in mirror mode all extraneous files
+	 *         were deleted.
+	 */
+	public final boolean copy() {
+		final List<Path> small = new ArrayList<Path>();
+		final List<Path> large = new ArrayList<Path>();
+		final Set<Path> present = new HashSet<Path>();
+		final Set<Path> kept = new HashSet<Path>();
+		try {
+			Files.createDirectories(target);
+			scan(small, large, present, kept);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		meter.setExpectedBytes(bytesTotal);
+		meter.reset();
+		if (listener != null) {
+			listener.scanned(this);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "DirectoryCopier");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>(small.size());
+			for (final Path p : small) {
+				futures.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						copyFile(p, false);
+					}
+				}));
+			}
+			for (Path p : large) {
+				copyFile(p, true);
+			}
+			for (Future<?> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+				}
+			}
+		} catch (InterruptedException e) {
+			cancelled = true;
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+		}
+
+		boolean deleted = true;
+		if (mirror && !cancelled) {
+			deleted = deleteExtraneous(present, kept);
+		}
+		return deleted && !cancelled && failed.isEmpty();
+	}
+
+	/**
+	 * Cancels the copying. Files being copied are finished, no new files are
+	 * started.
+	 */
+	public final void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Checks whether the copying was cancelled.
+	 *
+	 * @return true if <code>cancel()</code> was called.
+	 */
+	public final boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Gets the number of files in the source tree.
+	 *
+	 * @return The number of files found while scanning.
+	 */
+	public final int getFilesTotal() {
+		return filesTotal;
+	}
+
+	/**
+	 * Gets the number of bytes to copy, unchanged files excluded.
+	 *
+	 * @return The number of bytes to copy.
+	 */
+	public final long getBytesTotal() {
+		return bytesTotal;
+	}
+
+	/**
+	 * Gets the number of files copied so far.
+	 *
+	 * @return The number of files copied.
+	 */
+	public final int getFilesCopied() {
+		return filesCopied.get();
+	}
+
+	/**
+	 * Gets the number of files skipped because the target was up to date.
+	 *
+	 * @return The number of files skipped.
+	 */
+	public final int getFilesSkipped() {
+		return filesSkipped.get();
+	}
+
+	/**
+	 * Gets the number of files and directories deleted from the target in mirror
+	 * mode.
+	 *
+	 * @return The number of files and directories deleted.
+	 */
+	public final int getFilesDeleted() {
+		return filesDeleted.get();
+	}
+
+	/**
+	 * Gets the number of bytes copied so far.
+	 *
+	 * @return The number of bytes copied.
+	 */
+	public final long getBytesCopied() {
+		return meter.getBytes();
+	}
+
+	/**
+	 * Gets the source files that could not be copied.
+	 *
+	 * @return A copy of the list of failed files.
+	 */
+	public final List<File> getFailedFiles() {
+		synchronized (failed) {
+			return new ArrayList<File>(failed);
+		}
+	}
+
+	/**
+	 * Gets the current speed.
+	 *
+	 * @return The speed like "85,20 MiB/s".
+	 * @see TransferMeter#formatRate()
+	 */
+	public final String getTransferSpeed() {
+		return meter.formatRate();
+	}
+
+	/**
+	 * Gets the <code>TransferMeter</code> measuring the copied bytes, for
+	 * average rates and the estimated time left.
+	 *
+	 * @return The <code>TransferMeter</code> of this copier.
+	 */
+	public final TransferMeter getTransferMeter() {
+		return meter;
+	}
+
+	/**
+	 * Lists the files to copy and creates the directories. The relative paths
+	 * of all source entries are added to <code>present</code>. Entries that are
+	 * not copied because they are not regular files or could not be read are
+	 * added to <code>kept</code> too, their targets are not touched by the
+	 * mirroring.
+	 * <p>
+	 * A target entry of another type than its source is replaced: a file or
+	 * link by a directory and, in mirror mode only, a directory by a file. An
+	 * entry that cannot be replaced is reported as failed and kept.
+	 */
+	private final void scan(final List<Path> small, final List<Path> large, final Set<Path> present,
+			final Set<Path> kept) throws IOException {
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				if (dir.equals(target)) {
+					// the target is inside the source
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				Path rel = source.relativize(dir);
+				present.add(rel);
+				if (dir.equals(source)) {
+					return FileVisitResult.CONTINUE;
+				}
+				Path to = target.resolve(rel);
+				try {
+					if (Files.exists(to, LinkOption.NOFOLLOW_LINKS)
+							&& !Files.isDirectory(to, LinkOption.NOFOLLOW_LINKS)) {
+						// a file or a link, do not write into the directory it links to
+						Files.delete(to);
+					}
+					Files.createDirectories(to);
+				} catch (IOException e) {
+					e.printStackTrace();
+					failed.add(dir.toFile());
+					kept.add(rel);
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				Path rel = source.relativize(file);
+				present.add(rel);
+				if (!attrs.isRegularFile()) {
+					// symbolic links and special files
+					kept.add(rel);
+					return FileVisitResult.CONTINUE;
+				}
+				filesTotal++;
+				Path to = target.resolve(rel);
+				if (Files.isDirectory(to, LinkOption.NOFOLLOW_LINKS)) {
+					if (!mirror) {
+						// copying does not delete directories
+						System.err.println("Directory in the way of " + file + ": " + to);
+						failed.add(file.toFile());
+						return FileVisitResult.CONTINUE;
+					}
+					try {
+						deleteTree(to);
+					} catch (IOException e) {
+						e.printStackTrace();
+						failed.add(file.toFile());
+						kept.add(rel);
+						return FileVisitResult.CONTINUE;
+					}
+				}
+				if (isUnchanged(attrs, to)) {
+					filesSkipped.incrementAndGet();
+				} else {
+					bytesTotal += attrs.size();
+					if (attrs.size() >= largeFile) {
+						large.add(rel);
+					} else {
+						small.add(rel);
+					}
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) {
+				exc.printStackTrace();
+				failed.add(file.toFile());
+				Path rel = source.relativize(file);
+				present.add(rel);
+				kept.add(rel);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Deletes a target directory and everything in it, links are not followed.
+	 */
+	private final void deleteTree(Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				filesDeleted.incrementAndGet();
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+				if (exc != null) {
+					throw exc;
+				}
+				Files.delete(d);
+				filesDeleted.incrementAndGet();
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private final static boolean isUnchanged(BasicFileAttributes attrs, Path target) {
+		try {
+			BasicFileAttributes ta = Files.readAttributes(target, BasicFileAttributes.class,
+					LinkOption.NOFOLLOW_LINKS);
+			return ta.isRegularFile() && ta.size() == attrs.size()
+					&& ta.lastModifiedTime().toMillis() == attrs.lastModifiedTime().toMillis();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private final void copyFile(Path rel, boolean notifyChunks) {
+		if (cancelled) {
+			return;
+		}
+		final File from = source.resolve(rel).toFile();
+		Path to = target.resolve(rel);
+		TransferListener tl = new TransferListener() {
+			@Override
+			public void transferred(long bytes, long total) {
+				meter.add(bytes);
+				if (listener != null) {
+					listener.progress(DirectoryCopier.this, from);
+				}
+			}
+		};
+		try {
+			if (Files.isSymbolicLink(to)) {
+				// the link is replaced by the file, not written through
+				Files.delete(to);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		boolean ok = FSFx.copyFile(from, to.toFile(), notifyChunks ? tl : null, true);
+		if (ok) {
+			try {
+				Files.setLastModifiedTime(to, FileTime.fromMillis(from.lastModified()));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (!notifyChunks) {
+				meter.add(from.length());
+			}
+			filesCopied.incrementAndGet();
+			if (listener != null) {
+				listener.progress(this, from);
+			}
+		} else {
+			failed.add(from);
+			if (listener != null) {
+				listener.failed(this, from);
+			}
+		}
+	}
+
+	private final boolean deleteExtraneous(final Set<Path> present, final Set<Path> kept) {
+		final boolean[] ok = { true };
+		try {
+			Files.walkFileTree(target, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					if (dir.equals(source)) {
+						// the source is inside the target
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					if (kept.contains(target.relativize(dir))) {
+						// the source entry was not copied, its content is unknown
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (!present.contains(target.relativize(file))) {
+						delete(file);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+					if (!dir.equals(target) && !present.contains(target.relativize(dir))) {
+						delete(dir);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException exc) {
+					exc.printStackTrace();
+					ok[0] = false;
+					return FileVisitResult.CONTINUE;
+				}
+
+				private void delete(Path p) {
+					try {
+						Files.delete(p);
+						filesDeleted.incrementAndGet();
+					} catch (IOException e) {
+						e.printStackTrace();
+						ok[0] = false;
+					}
+				}
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return ok[0];
+	}
+}
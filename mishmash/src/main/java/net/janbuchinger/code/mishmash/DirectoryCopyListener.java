@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash;
+
+import java.io.File;
+
+/**
+ * A <code>DirectoryCopyListener</code> is notified about the progress of a
+ * <code>DirectoryCopier</code>.
+ * <p>
+ * The methods are called on the copying threads, possibly concurrently.
+ * Implementations that update the user interface should hand over to the event
+ * dispatch thread.
+ *
+ * @author Jan Buchinger
+ *
+ * @see DirectoryCopier
+ */
+public interface DirectoryCopyListener {
+	/**
+	 * Called when the source directory tree was scanned and the totals are
+	 * known.
+	 *
+	 * @param copier
+	 *            The <code>DirectoryCopier</code> to query the state from.
+	 */
+	public void scanned(DirectoryCopier copier);
+
+	/**
+	 * Called while files are copied, after every file and periodically during
+	 * large files.
+	 *
+	 * @param copier
+	 *            The <code>DirectoryCopier</code> to query the state from.
+	 * @param current
+	 *            The source file being copied.
+	 */
+	public void progress(DirectoryCopier copier, File current);
+
+	/**
+	 * Called when copying a file failed.
+	 *
+	 * @param copier
+	 *            The <code>DirectoryCopier</code> to query the state from.
+	 * @param file
+	 *            The source file that could not be copied.
+	 */
+	public void failed(DirectoryCopier copier, File file);
+}
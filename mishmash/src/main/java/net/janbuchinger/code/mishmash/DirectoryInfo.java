@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash;
+
+import java.nio.file.Path;
+
+/**
+ * <code>DirectoryInfo</code> is the immutable result of probing a directory by
+ * <code>DirectoryProbe</code>.
+ * <p>
+ * Hidden means the name begins with &quot;.&quot; like in
+ * <code>DirectoryFileFilter</code>.
+ *
+ * @author Jan Buchinger
+ *
+ * @see DirectoryProbe
+ */
+public final class DirectoryInfo {
+	private final Path directory;
+	private final boolean readable;
+	private final boolean empty;
+	private final boolean subDirectories;
+	private final boolean visibleSubDirectories;
+	private final int entryCount;
+	private final long totalSize;
+	private final long lastModified;
+	private final long probed;
+
+	DirectoryInfo(Path directory, boolean readable, boolean empty, boolean subDirectories,
+			boolean visibleSubDirectories, int entryCount, long totalSize, long lastModified, long probed) {
+		this.directory = directory;
+		this.readable = readable;
+		this.empty = empty;
+		this.subDirectories = subDirectories;
+		this.visibleSubDirectories = visibleSubDirectories;
+		this.entryCount = entryCount;
+		this.totalSize = totalSize;
+		this.lastModified = lastModified;
+		this.probed = probed;
+	}
+
+	/**
+	 * Gets the probed directory.
+	 *
+	 * @return The path of the directory.
+	 */
+	public final Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Checks whether the directory could be listed.
+	 *
+	 * @return false if the directory does not exist, is no directory or cannot be
+	 *         read. All other values are meaningless then.
+	 */
+	public final boolean isReadable() {
+		return readable;
+	}
+
+	/**
+	 * Checks whether the directory is empty.
+	 *
+	 * @return true if the directory has no entries.
+	 * @see FSFx#hasDirEntries(Path)
+	 */
+	public final boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * Checks whether the directory has sub directories, including hidden ones.
+	 *
+	 * @return true if there is at least one sub directory.
+	 */
+	public final boolean hasSubDirectories() {
+		return subDirectories;
+	}
+
+	/**
+	 * Checks whether the directory has sub directories that are not hidden.
+	 *
+	 * @return true if there is at least one sub directory with a name not
+	 *         beginning with &quot;.&quot;.
+	 */
+	public final boolean hasVisibleSubDirectories() {
+		return visibleSubDirectories;
+	}
+
+	/**
+	 * Checks whether the directory has sub directories.
+	 *
+	 * @param includeHidden
+	 *            true to include hidden directories.
+	 * @return true if there is at least one matching sub directory.
+	 */
+	public final boolean hasSubDirectories(boolean includeHidden) {
+		return includeHidden ? subDirectories : visibleSubDirectories;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return The number of entries or -1 if the entries were not counted.
+	 */
+	public final int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * Gets the total length of the files directly in the directory.
+	 *
+	 * @return The total length in bytes or -1 if the entries were not counted.
+	 */
+	public final long getTotalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * Checks whether the entries were counted.
+	 *
+	 * @return true if <code>getEntryCount()</code> and
+	 *         <code>getTotalSize()</code> are known.
+	 */
+	public final boolean isCounted() {
+		return entryCount >= 0;
+	}
+
+	final long getLastModified() {
+		return lastModified;
+	}
+
+	final long getProbed() {
+		return probed;
+	}
+}
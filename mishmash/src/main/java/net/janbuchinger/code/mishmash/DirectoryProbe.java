@@ -0,0 +1,291 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <code>DirectoryProbe</code> finds out whether directories are empty, have
+ * sub directories and optionally counts their entries, in one pass per
+ * directory.
+ * <p>
+ * Several directories are probed in parallel. The results are cached for a
+ * short time, a cached result is only used while the modification time of
+ * the directory is unchanged. Without counting, listing a directory stops as
+ * soon as a visible sub directory is found.
+ * <p>
+ * <code>DirectoryProbe</code> is thread safe.
+ *
+ * @author Jan Buchinger
+ *
+ * @see FSFx#hasDirEntries(Path)
+ */
+public final class DirectoryProbe {
+	/**
+	 * The cache is pruned from expired entries when it grows beyond this size.
+	 */
+	private final static int PRUNE_SIZE = 4096;
+
+	private static DirectoryProbe shared;
+
+	private final long ttl;
+	private final ExecutorService pool;
+	private final ConcurrentHashMap<Path, DirectoryInfo> cache;
+
+	/**
+	 * Gets the <code>DirectoryProbe</code> shared by the library components.
+	 * It caches results for two seconds and uses one thread per available
+	 * processor.
+	 *
+	 * @return The shared <code>DirectoryProbe</code>.
+	 */
+	public final static synchronized DirectoryProbe getShared() {
+		if (shared == null) {
+			shared = new DirectoryProbe(2000, Runtime.getRuntime().availableProcessors());
+		}
+		return shared;
+	}
+
+	/**
+	 * Constructs a new <code>DirectoryProbe</code>.
+	 *
+	 * @param ttlMillis
+	 *            The time in milliseconds a result is cached, 0 disables the
+	 *            cache.
+	 * @param nThreads
+	 *            The number of threads probing directories in parallel.
+	 */
+	public DirectoryProbe(long ttlMillis, int nThreads) {
+		this.ttl = ttlMillis;
+		pool = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "DirectoryProbe");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		cache = new ConcurrentHashMap<Path, DirectoryInfo>();
+	}
+
+	/**
+	 * Probes a directory on the calling thread.
+	 *
+	 * @param directory
+	 *            The directory to probe.
+	 * @param count
+	 *            true to count the entries and sum up the file lengths.
+	 * @return The <code>DirectoryInfo</code> of the directory.
+	 */
+	public final DirectoryInfo probe(File directory, boolean count) {
+		return probe(directory.toPath(), count);
+	}
+
+	/**
+	 * Probes a directory on the calling thread.
+	 *
+	 * @param directory
+	 *            The directory to probe.
+	 * @param count
+	 *            true to count the entries and sum up the file lengths.
+	 * @return The <code>DirectoryInfo</code> of the directory.
+	 */
+	public final DirectoryInfo probe(Path directory, boolean count) {
+		long lastModified = lastModified(directory);
+		DirectoryInfo di = cached(directory, count, lastModified);
+		if (di == null) {
+			di = list(directory, count, lastModified);
+			if (ttl > 0) {
+				if (cache.size() > PRUNE_SIZE) {
+					prune();
+				}
+				cache.put(directory, di);
+			}
+		}
+		return di;
+	}
+
+	/**
+	 * Probes several directories in parallel and waits for the results.
+	 *
+	 * @param directories
+	 *            The directories to probe.
+	 * @param count
+	 *            true to count the entries and sum up the file lengths.
+	 * @return The <code>DirectoryInfo</code>s mapped by directory in the
+	 *         iteration order of the supplied directories.
+	 */
+	public final Map<Path, DirectoryInfo> probe(Collection<Path> directories, final boolean count) {
+		Map<Path, DirectoryInfo> result = new LinkedHashMap<Path, DirectoryInfo>();
+		List<Future<DirectoryInfo>> futures = new ArrayList<Future<DirectoryInfo>>(directories.size());
+		for (final Path p : directories) {
+			result.put(p, null);
+			futures.add(pool.submit(new Callable<DirectoryInfo>() {
+				@Override
+				public DirectoryInfo call() {
+					return probe(p, count);
+				}
+			}));
+		}
+		boolean interrupted = false;
+		for (Future<DirectoryInfo> f : futures) {
+			while (true) {
+				try {
+					DirectoryInfo di = f.get();
+					result.put(di.getDirectory(), di);
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return result;
+	}
+
+	/**
+	 * Probes several directories in parallel and waits for the results.
+	 *
+	 * @param directories
+	 *            The directories to probe.
+	 * @param count
+	 *            true to count the entries and sum up the file lengths.
+	 * @return The <code>DirectoryInfo</code>s in the order of the supplied
+	 *         directories.
+	 */
+	public final DirectoryInfo[] probe(File[] directories, boolean count) {
+		List<Path> paths = new ArrayList<Path>(directories.length);
+		for (File f : directories) {
+			paths.add(f.toPath());
+		}
+		Map<Path, DirectoryInfo> map = probe(paths, count);
+		DirectoryInfo[] result = new DirectoryInfo[directories.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = map.get(paths.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Removes the cached result of a directory.
+	 *
+	 * @param directory
+	 *            The directory whose result is outdated.
+	 */
+	public final void invalidate(Path directory) {
+		cache.remove(directory);
+	}
+
+	/**
+	 * Removes all cached results.
+	 */
+	public final void clear() {
+		cache.clear();
+	}
+
+	private final DirectoryInfo cached(Path directory, boolean count, long lastModified) {
+		if (ttl <= 0) {
+			return null;
+		}
+		DirectoryInfo di = cache.get(directory);
+		if (di == null) {
+			return null;
+		}
+		if (System.currentTimeMillis() - di.getProbed() > ttl || di.getLastModified() != lastModified
+				|| (count && !di.isCounted())) {
+			cache.remove(directory, di);
+			return null;
+		}
+		return di;
+	}
+
+	private final void prune() {
+		long now = System.currentTimeMillis();
+		Iterator<DirectoryInfo> i = cache.values().iterator();
+		while (i.hasNext()) {
+			if (now - i.next().getProbed() > ttl) {
+				i.remove();
+			}
+		}
+	}
+
+	private final static long lastModified(Path directory) {
+		try {
+			return Files.getLastModifiedTime(directory).toMillis();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	private final static DirectoryInfo list(Path directory, boolean count, long lastModified) {
+		long probed = System.currentTimeMillis();
+		boolean empty = true;
+		boolean subDirs = false;
+		boolean visibleSubDirs = false;
+		int entries = 0;
+		long size = 0;
+		BasicFileAttributes attrs;
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory)) {
+			for (Path p : ds) {
+				empty = false;
+				entries++;
+				try {
+					attrs = Files.readAttributes(p, BasicFileAttributes.class);
+				} catch (IOException e) {
+					continue;
+				}
+				if (attrs.isDirectory()) {
+					subDirs = true;
+					if (!p.getFileName().toString().startsWith(".")) {
+						visibleSubDirs = true;
+						if (!count) {
+							break;
+						}
+					}
+				} else {
+					size += attrs.size();
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			return new DirectoryInfo(directory, false, true, false, false, -1, -1, lastModified, probed);
+		}
+		return new DirectoryInfo(directory, true, empty, subDirs, visibleSubDirs, count ? entries : -1,
+				count ? size : -1, lastModified, probed);
+	}
+}
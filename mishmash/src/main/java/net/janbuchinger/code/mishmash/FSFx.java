@@ -16,21 +16,25 @@
 package net.janbuchinger.code.mishmash;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.NumberFormat;
-import java.util.Iterator;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Vector;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
  * FSFx stands as an abbreviation for file system functions.
@@ -39,16 +43,24 @@ import java.util.zip.ZipOutputStream;
  * 
  */
 public final class FSFx {
-	private static NumberFormat nf;
+	/**
+	 * Maximum number of bytes per <code>FileChannel.transferTo</code> call, also
+	 * the granularity of progress notifications.
+	 */
+	private final static long TRANSFER_CHUNK = 8 * 1024 * 1024;
 
-	private static void initNumberFormat() {
-		if (nf == null) {
-			nf = NumberFormat.getInstance();
-			nf.setMinimumFractionDigits(2);
-			nf.setMaximumFractionDigits(2);
-			nf.setGroupingUsed(true);
+	/**
+	 * Per thread direct buffer for copying from channels that are not files.
+	 */
+	private final static ThreadLocal<ByteBuffer> copyBuffer = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(256 * 1024);
 		}
-	}
+	};
+
+	private final static FileLengthFormat flfBinary = new FileLengthFormat(true);
+	private final static FileLengthFormat flfDecimal = new FileLengthFormat(false);
 
 	/**
 	 * Formats a file length according its binary magnitude.
@@ -72,38 +84,22 @@ public final class FSFx {
 	 *         digits followed by a multiplier descriptor like "2,95 MiB".
 	 */
 	public static final String formatFileLength(double length) {
-		String s = "";
-		double x;
-
-		boolean inv = length < 0;
-
-		if (inv) {
-			length = length * -1;
-		}
-
-		initNumberFormat();
-
-		if (length > (x = Math.pow(1024, 8))) {
-			s = nf.format((double) length / x).concat(" YiB");
-		} else if (length >= (x = Math.pow(1024, 7))) {
-			s = nf.format((double) length / x).concat(" ZiB");
-		} else if (length >= (x = Math.pow(1024, 6))) {
-			s = nf.format((double) length / x).concat(" EiB");
-		} else if (length >= (x = Math.pow(1024, 5))) {
-			s = nf.format((double) length / x).concat(" PiB");
-		} else if (length >= (x = Math.pow(1024, 4))) {
-			s = nf.format((double) length / x).concat(" TiB");
-		} else if (length >= (x = Math.pow(1024, 3))) {
-			s = nf.format((double) length / x).concat(" GiB");
-		} else if (length >= (x = Math.pow(1024, 2))) {
-			s = nf.format((double) length / x).concat(" MiB");
-		} else if (length >= (x = Math.pow(1024, 1))) {
-			s = nf.format((double) length / x).concat(" KiB");
-		} else {
-			s = Integer.toString((int) length).concat(" bytes");
-		}
+		return flfBinary.format(length);
+	}
 
-		return (inv ? "-" : "").concat(s);
+	/**
+	 * Formats a file length according its binary magnitude and appends it to the
+	 * specified <code>StringBuilder</code>.
+	 * 
+	 * @param length
+	 *            The data length to format.
+	 * @param sb
+	 *            The <code>StringBuilder</code> to append to.
+	 * @return The supplied <code>StringBuilder</code>.
+	 * @see #formatFileLength(double)
+	 */
+	public static final StringBuilder formatFileLength(double length, StringBuilder sb) {
+		return flfBinary.format(length, sb);
 	}
 
 	/**
@@ -118,14 +114,14 @@ public final class FSFx {
 	 * @return the file length per second like
 	 *         <code>formatFileLength(bytesCopied / seconds).concat("/s")</code>
 	 * @see FSFx#formatFileLength(double)
+	 * @see TransferMeter
 	 */
 	public final static String formatTransferSpeed(long tStart, long bytesCopied) {
-		try {
-			return FSFx.formatFileLength(bytesCopied / ((System.currentTimeMillis() - tStart) / 1000.0))
-					.concat("/s");
-		} catch (Exception e) {
+		long millis = System.currentTimeMillis() - tStart;
+		if (millis <= 0) {
 			return "0 bytes/s";
 		}
+		return FSFx.formatFileLength(bytesCopied / (millis / 1000.0)).concat("/s");
 	}
 
 	/**
@@ -150,39 +146,22 @@ public final class FSFx {
 	 *         digits followed by a multiplier descriptor like "2,95 MB".
 	 */
 	public static final String formatFileLengthDec(double length) {
-		String s = "";
-		double x;
-
-		boolean inv = length < 0;
-
-		if (inv) {
-			length = length * -1;
-		}
-
-		initNumberFormat();
-
-		if (length > (x = Math.pow(1000, 8))) {
-			s = nf.format((double) length / x).concat(" YB");
-		} else if (length >= (x = Math.pow(1000, 7))) {
-			s = nf.format((double) length / x).concat(" ZB");
-		} else if (length >= (x = Math.pow(1000, 6))) {
-			s = nf.format((double) length / x).concat(" EB");
-		} else if (length >= (x = Math.pow(1000, 5))) {
-			s = nf.format((double) length / x).concat(" PB");
-		} else if (length >= (x = Math.pow(1000, 4))) {
-			s = nf.format((double) length / x).concat(" TB");
-		} else if (length >= (x = Math.pow(1000, 3))) {
-			s = nf.format((double) length / x).concat(" GB");
-		} else if (length >= (x = Math.pow(1000, 2))) {
-			s = nf.format((double) length / x).concat(" MB");
-		} else if (length >= (x = Math.pow(1000, 1))) {
-			s = nf.format((double) length / x).concat(" kB");
-		} else {
-			s = Integer.toString((int) length).concat(" bytes");
-		}
-
-		return (inv ? "-" : "").concat(s);
+		return flfDecimal.format(length);
+	}
 
+	/**
+	 * Formats a file length according its decimal magnitude and appends it to
+	 * the specified <code>StringBuilder</code>.
+	 * 
+	 * @param length
+	 *            The data length to format.
+	 * @param sb
+	 *            The <code>StringBuilder</code> to append to.
+	 * @return The supplied <code>StringBuilder</code>.
+	 * @see #formatFileLengthDec(double)
+	 */
+	public static final StringBuilder formatFileLengthDec(double length, StringBuilder sb) {
+		return flfDecimal.format(length, sb);
 	}
 
 	/**
@@ -197,90 +176,71 @@ public final class FSFx {
 	 * @return the file length per second like
 	 *         <code>formatFileLengthDec(bytesCopied / seconds).concat("/s")</code>
 	 * @see FSFx#formatFileLengthDec(double)
+	 * @see TransferMeter
 	 */
 	public final static String formatTransferSpeedDec(long tStart, long bytesCopied) {
-		try {
-			return FSFx.formatFileLengthDec(bytesCopied / ((System.currentTimeMillis() - tStart) / 1000.0))
-					.concat("/s");
-		} catch (Exception e) {
+		long millis = System.currentTimeMillis() - tStart;
+		if (millis <= 0) {
 			return "0 bytes/s";
 		}
+		return FSFx.formatFileLengthDec(bytesCopied / (millis / 1000.0)).concat("/s");
 	}
 
 	/**
 	 * Packs the provided files into a zip file into the root directory,
 	 * modification date is lost.
+	 * <p>
+	 * The files are compressed concurrently using one thread per available
+	 * processor.
 	 * 
 	 * @param files
 	 *            The Vector of Files to be zipped.
 	 * @param target
 	 *            The zip file
 	 * @return A boolean[] indicating zipping success of the corresponding files.
+	 * @see ParallelZipWriter
 	 */
 	public static boolean[] createFlatZip(Vector<File> files, File target) {
+		return new ParallelZipWriter().createFlatZip(files, target);
+	}
 
-		boolean[] bx = new boolean[files.size()];
-		for (int i = 0; i < bx.length; i++) {
-			bx[i] = false;
-		}
-
-		// input file
-		FileInputStream in = null;
-
-		// output file
-		ZipOutputStream out = null;
-		try {
-			out = new ZipOutputStream(new FileOutputStream(target));
-		} catch (FileNotFoundException e3) {
-			e3.printStackTrace();
-			return bx;
-		}
-
-		Iterator<File> iFiles = files.iterator();
-		File f;
-		byte[] b;
-		int count;
-		int counter = 0;
-		while (iFiles.hasNext()) {
-			f = iFiles.next();
-			try {
-				in = new FileInputStream(f);
-			} catch (FileNotFoundException e2) {
-				e2.printStackTrace();
-				continue;
-			}
-			// name the file inside the zip file
-			try {
-				out.putNextEntry(new ZipEntry(f.getName()));
-			} catch (IOException e1) {
-				e1.printStackTrace();
-				continue;
-			}
-
-			// buffer size
-			b = new byte[1024];
-
-			try {
-				while ((count = in.read(b)) > 0) {
-					out.write(b, 0, count);
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			try {
-				in.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			bx[counter++] = true;
-		}
+	/**
+	 * Packs the provided files into a zip file into the root directory,
+	 * modification date is lost.
+	 * 
+	 * @param files
+	 *            The Vector of Files to be zipped.
+	 * @param target
+	 *            The zip file
+	 * @param nThreads
+	 *            The number of threads compressing the files.
+	 * @return A boolean[] indicating zipping success of the corresponding files.
+	 * @see ParallelZipWriter
+	 */
+	public static boolean[] createFlatZip(Vector<File> files, File target, int nThreads) {
+		return new ParallelZipWriter(nThreads).createFlatZip(files, target);
+	}
 
-		try {
-			out.close();
+	/**
+	 * Packs a directory tree into a zip file. The paths relative to the
+	 * directory and the modification dates are preserved, already compressed
+	 * files are stored without compression.
+	 * 
+	 * @param directory
+	 *            The directory to pack.
+	 * @param target
+	 *            The zip file.
+	 * @return true only if the zip file was created successfully.
+	 * @see ZipBuilder
+	 */
+	public static boolean createZip(File directory, File target) {
+		try (ZipBuilder zb = new ZipBuilder(target)) {
+			zb.addTree(directory);
+			return true;
 		} catch (IOException e) {
 			e.printStackTrace();
+			return false;
 		}
-		return bx;
 	}
 
 	/**
@@ -317,6 +277,7 @@ public final class FSFx {
 	 *            The directory to check.
 	 * @return <code>true</code> only if the specified path exists, is a directory
 	 *         and has entries.
+	 * @see DirectoryProbe
 	 */
 	public final static boolean hasDirEntries(Path directory) {
 		DirectoryStream<Path> ds = null;
@@ -350,44 +311,266 @@ public final class FSFx {
 	 */
 	public final static boolean copyResourceFile(@SuppressWarnings("rawtypes") Class from, String fromName,
 			File to) {
+		return copyResourceFile(from, fromName, to, null);
+	}
+
+	/**
+	 * Copies a resource that is bundled with the program to an external file. The
+	 * parent file path is being created if it does not exist yet.
+	 * <p>
+	 * Resources that are plain files (not packed in a jar file) are copied like
+	 * {@link #copyFile(File, File, TransferListener)}.
+	 * 
+	 * @param from
+	 *            The class to locate the resource from.
+	 * @param fromName
+	 *            The resource name relative to the specified class.
+	 * @param to
+	 *            The new File to copy to.
+	 * @param listener
+	 *            The listener to notify about the progress or <code>null</code>.
+	 * @return true only if the copying was successful. false if the parent
+	 *         directory could not be created or an Exception is thrown during
+	 *         copying the file.
+	 */
+	public final static boolean copyResourceFile(@SuppressWarnings("rawtypes") Class from, String fromName,
+			File to, TransferListener listener) {
+		URL url = from.getResource(fromName);
+		if (url != null && "file".equals(url.getProtocol())) {
+			try {
+				return copyFile(new File(url.toURI()), to, listener);
+			} catch (URISyntaxException | IllegalArgumentException e) {}
+		}
 		if (!to.getParentFile().exists()) {
 			if (!to.getParentFile().mkdirs()) {
 				return false;
 			}
 		}
-		InputStream stream = null;
-		OutputStream resStreamOut = null;
-		try {
-			stream = from.getResourceAsStream(fromName);
+		try (InputStream stream = from.getResourceAsStream(fromName)) {
 			if (stream == null) {
-				throw new Exception("Cannot get resource \"" + fromName + "\" from Jar file.");
+				throw new IOException("Cannot get resource \"" + fromName + "\" from Jar file.");
 			}
+			try (FileChannel out = FileChannel.open(to.toPath(), StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				copy(Channels.newChannel(stream), out, listener);
+			}
+			return true;
+		} catch (IOException ex) {
+			ex.printStackTrace();
+			return false;
+		}
+	}
 
-			int readBytes;
-			byte[] buffer = new byte[5120];
-			resStreamOut = new FileOutputStream(to);
-			while ((readBytes = stream.read(buffer)) > 0) {
-				resStreamOut.write(buffer, 0, readBytes);
+	/**
+	 * Copies a file. The parent file path is being created if it does not exist
+	 * yet, an existing target file is overwritten.
+	 * 
+	 * @param from
+	 *            The file to copy.
+	 * @param to
+	 *            The new File to copy to.
+	 * @return true only if the copying was successful.
+	 * @see #copyFile(File, File, TransferListener)
+	 */
+	public final static boolean copyFile(File from, File to) {
+		return copyFile(from, to, null);
+	}
+
+	/**
+	 * Copies a file. The parent file path is being created if it does not exist
+	 * yet, an existing target file is overwritten.
+	 * <p>
+	 * The data is transferred by <code>FileChannel.transferTo</code> which lets
+	 * the operating system copy without passing the data through the Java heap
+	 * (sendfile on Linux).
+	 * 
+	 * @param from
+	 *            The file to copy.
+	 * @param to
+	 *            The new File to copy to.
+	 * @param listener
+	 *            The listener to notify about the progress or <code>null</code>.
+	 * @return true only if the copying was successful. false if the parent
+	 *         directory could not be created, <code>to</code> is the same file
+	 *         as <code>from</code> or an Exception is thrown during copying the
+	 *         file.
+	 */
+	public final static boolean copyFile(File from, File to, TransferListener listener) {
+		return copyFile(from, to, listener, false);
+	}
+
+	/**
+	 * Copies a file like <code>copyFile(File, File, TransferListener)</code>.
+	 * 
+	 * @param from
+	 *            The file to copy.
+	 * @param to
+	 *            The new File to copy to.
+	 * @param listener
+	 *            The listener to notify about the progress or <code>null</code>.
+	 * @param noFollow
+	 *            true to fail instead of writing through <code>to</code> if it
+	 *            is a symbolic link.
+	 * @return true only if the copying was successful.
+	 */
+	final static boolean copyFile(File from, File to, TransferListener listener, boolean noFollow) {
+		File parent = to.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists()) {
+			if (!parent.mkdirs()) {
+				return false;
+			}
+		}
+		Set<OpenOption> options = new HashSet<OpenOption>();
+		options.add(StandardOpenOption.WRITE);
+		options.add(StandardOpenOption.CREATE);
+		options.add(StandardOpenOption.TRUNCATE_EXISTING);
+		if (noFollow) {
+			options.add(LinkOption.NOFOLLOW_LINKS);
+		}
+		try {
+			// truncating the target would destroy the source
+			if (Files.exists(to.toPath()) && Files.isSameFile(from.toPath(), to.toPath())) {
+				throw new IOException("Cannot copy " + from + " onto itself.");
 			}
+		} catch (IOException ex) {
+			ex.printStackTrace();
+			return false;
+		}
+		try (FileChannel in = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(to.toPath(), options)) {
+			copy(in, out, listener);
 			return true;
-		} catch (Exception ex) {
+		} catch (IOException ex) {
 			ex.printStackTrace();
 			return false;
-		} finally {
-			if (stream != null) {
-				try {
-					stream.close();
-				} catch (IOException e) {
-					e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Copies a directory tree recursively. Files that exist in the target with
+	 * the same length and modification time are skipped.
+	 * 
+	 * @param from
+	 *            The directory to copy.
+	 * @param to
+	 *            The directory to copy to. It is created if it does not exist.
+	 * @param listener
+	 *            The listener to notify about the progress or <code>null</code>.
+	 * @return true only if all files were copied or up to date.
+	 * @see DirectoryCopier
+	 */
+	public final static boolean copyDirectory(File from, File to, DirectoryCopyListener listener) {
+		return new DirectoryCopier(from, to, false, listener).copy();
+	}
+
+	/**
+	 * Copies a directory tree recursively and deletes all files and directories
+	 * from the target that do not exist in the source. Files that exist in the
+	 * target with the same length and modification time are skipped.
+	 * 
+	 * @param from
+	 *            The directory to mirror.
+	 * @param to
+	 *            The mirror directory. It is created if it does not exist.
+	 * @param listener
+	 *            The listener to notify about the progress or <code>null</code>.
+	 * @return true only if all files were copied or up to date and all
+	 *         extraneous files were deleted.
+	 * @see DirectoryCopier
+	 */
+	public final static boolean mirrorDirectory(File from, File to, DirectoryCopyListener listener) {
+		return new DirectoryCopier(from, to, true, listener).copy();
+	}
+
+	/**
+	 * Copies the remaining content of a <code>FileChannel</code> to another
+	 * <code>FileChannel</code> by <code>FileChannel.transferTo</code>.
+	 * 
+	 * @param in
+	 *            The channel to read from.
+	 * @param out
+	 *            The channel to write to.
+	 * @param listener
+	 *            The listener to notify about the progress or <code>null</code>.
+	 * @return The number of bytes copied.
+	 * @throws IOException
+	 *             If reading or writing fails.
+	 */
+	public final static long copy(FileChannel in, FileChannel out, TransferListener listener)
+			throws IOException {
+		long position = in.position();
+		long size = in.size();
+		long total = 0;
+		long n;
+		while (position < size) {
+			n = in.transferTo(position, Math.min(TRANSFER_CHUNK, size - position), out);
+			if (n <= 0) {
+				// the file was truncated meanwhile or transferTo made no progress
+				ByteBuffer bb = copyBuffer.get();
+				bb.clear();
+				bb.limit((int) Math.min(bb.capacity(), size - position));
+				if (in.read(bb, position) < 0) {
+					break;
 				}
+				bb.flip();
+				n = bb.remaining();
+				while (bb.hasRemaining()) {
+					out.write(bb);
+				}
+				bb.clear();
 			}
-			if (resStreamOut != null) {
-				try {
-					resStreamOut.close();
-				} catch (IOException e) {
-					e.printStackTrace();
+			position += n;
+			total += n;
+			if (listener != null) {
+				listener.transferred(n, total);
+			}
+		}
+		in.position(position);
+		return total;
+	}
+
+	/**
+	 * Copies all remaining data of a channel to another channel through a pooled
+	 * direct <code>ByteBuffer</code>.
+	 * 
+	 * @param in
+	 *            The channel to read from.
+	 * @param out
+	 *            The channel to write to.
+	 * @param listener
+	 *            The listener to notify about the progress or <code>null</code>.
+	 * @return The number of bytes copied.
+	 * @throws IOException
+	 *             If reading or writing fails.
+	 */
+	public final static long copy(ReadableByteChannel in, WritableByteChannel out, TransferListener listener)
+			throws IOException {
+		ByteBuffer bb = copyBuffer.get();
+		bb.clear();
+		long total = 0;
+		int n;
+		boolean eof = false;
+		while (!eof) {
+			// fill the buffer to save write calls on sources that deliver small chunks
+			while (bb.hasRemaining()) {
+				if (in.read(bb) < 0) {
+					eof = true;
+					break;
+				}
+			}
+			bb.flip();
+			n = bb.remaining();
+			while (bb.hasRemaining()) {
+				out.write(bb);
+			}
+			bb.clear();
+			if (n > 0) {
+				total += n;
+				if (listener != null) {
+					listener.transferred(n, total);
 				}
 			}
 		}
+		return total;
 	}
 }
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * <code>FileLengthFormat</code> formats file lengths according to their binary
+ * or decimal magnitude like <code>FSFx.formatFileLength</code> and
+ * <code>FSFx.formatFileLengthDec</code>.
+ * <p>
+ * The magnitude is found by precomputed thresholds and the two fraction digits
+ * are rendered from the locale's symbols without a <code>NumberFormat</code>,
+ * only values that cannot be rounded safely this way (ties, huge values) are
+ * passed to a <code>NumberFormat</code>. Recently formatted values are cached.
+ * <p>
+ * <code>FileLengthFormat</code> is thread safe.
+ *
+ * @author Jan Buchinger
+ *
+ * @see FSFx#formatFileLength(double)
+ * @see FSFx#formatFileLengthDec(double)
+ */
+public final class FileLengthFormat {
+	private final static String[] BINARY_UNITS = { " bytes", " KiB", " MiB", " GiB", " TiB", " PiB", " EiB",
+			" ZiB", " YiB" };
+	private final static String[] DECIMAL_UNITS = { " bytes", " kB", " MB", " GB", " TB", " PB", " EB", " ZB",
+			" YB" };
+	private final static double[] BINARY_THRESHOLDS = thresholds(1024);
+	private final static double[] DECIMAL_THRESHOLDS = thresholds(1000);
+
+	/**
+	 * Largest value times 100 that is rounded without <code>NumberFormat</code>.
+	 * Below this the error of the multiplication is far smaller than
+	 * <code>TIE_MARGIN</code>.
+	 */
+	private final static double MAX_FAST = 1e9;
+	private final static double TIE_MARGIN = 1e-6;
+
+	private final static int CACHE_SIZE = 256;
+
+	private final boolean binary;
+	private final String[] units;
+	private final double[] thresholds;
+	private final NumberFormat nf;
+	private final boolean fast;
+	private final char zeroDigit;
+	private final char decimalSeparator;
+	private final char groupingSeparator;
+	private final int groupingSize;
+	private final CacheEntry[] cache;
+
+	/**
+	 * Constructs a new <code>FileLengthFormat</code> for the default format locale.
+	 *
+	 * @param binary
+	 *            true for binary magnitudes (KiB, MiB, ...), false for decimal
+	 *            magnitudes (kB, MB, ...).
+	 */
+	public FileLengthFormat(boolean binary) {
+		this(binary, Locale.getDefault(Locale.Category.FORMAT));
+	}
+
+	/**
+	 * Constructs a new <code>FileLengthFormat</code>.
+	 *
+	 * @param binary
+	 *            true for binary magnitudes (KiB, MiB, ...), false for decimal
+	 *            magnitudes (kB, MB, ...).
+	 * @param locale
+	 *            The locale to format the numbers for.
+	 */
+	public FileLengthFormat(boolean binary, Locale locale) {
+		this.binary = binary;
+		units = binary ? BINARY_UNITS : DECIMAL_UNITS;
+		thresholds = binary ? BINARY_THRESHOLDS : DECIMAL_THRESHOLDS;
+		nf = NumberFormat.getInstance(locale);
+		nf.setMinimumFractionDigits(2);
+		nf.setMaximumFractionDigits(2);
+		nf.setGroupingUsed(true);
+		if (nf instanceof DecimalFormat) {
+			DecimalFormat df = (DecimalFormat) nf;
+			DecimalFormatSymbols dfs = df.getDecimalFormatSymbols();
+			zeroDigit = dfs.getZeroDigit();
+			decimalSeparator = dfs.getDecimalSeparator();
+			groupingSeparator = dfs.getGroupingSeparator();
+			groupingSize = df.getGroupingSize();
+			fast = df.getPositivePrefix().length() == 0 && df.getPositiveSuffix().length() == 0;
+		} else {
+			zeroDigit = '0';
+			decimalSeparator = '.';
+			groupingSeparator = ',';
+			groupingSize = 0;
+			fast = false;
+		}
+		cache = new CacheEntry[CACHE_SIZE];
+	}
+
+	/**
+	 * Formats a file length.
+	 *
+	 * @param length
+	 *            The data length to format.
+	 * @return A file length formatted according to its magnitude with two fraction
+	 *         digits followed by a multiplier descriptor like "2,95 MiB".
+	 */
+	public final String format(double length) {
+		long key = Double.doubleToRawLongBits(length);
+		int slot = slot(key);
+		CacheEntry ce = cache[slot];
+		if (ce != null && ce.key == key) {
+			return ce.value;
+		}
+		String s = format(length, new StringBuilder(16)).toString();
+		cache[slot] = new CacheEntry(key, s);
+		return s;
+	}
+
+	/**
+	 * Formats a file length and appends it to the specified
+	 * <code>StringBuilder</code>.
+	 *
+	 * @param length
+	 *            The data length to format.
+	 * @param sb
+	 *            The <code>StringBuilder</code> to append to.
+	 * @return The supplied <code>StringBuilder</code>.
+	 */
+	public final StringBuilder format(double length, StringBuilder sb) {
+		long key = Double.doubleToRawLongBits(length);
+		CacheEntry ce = cache[slot(key)];
+		if (ce != null && ce.key == key) {
+			return sb.append(ce.value);
+		}
+		if (length < 0) {
+			sb.append('-');
+			length = -length;
+		}
+		int m = magnitude(length);
+		if (m == 0) {
+			return sb.append((int) length).append(units[0]);
+		}
+		double v = length / thresholds[m];
+		if (!appendFast(v, sb)) {
+			sb.append(((NumberFormat) nf.clone()).format(v));
+		}
+		return sb.append(units[m]);
+	}
+
+	/**
+	 * Finds the magnitude exactly like the comparison chain in
+	 * <code>FSFx.formatFileLength</code>: the highest magnitude is only used for
+	 * lengths greater than its threshold.
+	 */
+	private final int magnitude(double length) {
+		if (binary && length < 0x1p62) {
+			// for whole binary magnitudes the exponent decides
+			long l = (long) length;
+			return l < 1024 ? 0 : (63 - Long.numberOfLeadingZeros(l)) / 10;
+		}
+		if (length > thresholds[8]) {
+			return 8;
+		}
+		for (int m = 7; m > 0; m--) {
+			if (length >= thresholds[m]) {
+				return m;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Appends the value with two fraction digits rounded half even, if the
+	 * rounding direction is unambiguous.
+	 *
+	 * @return false if the value has to be formatted by the
+	 *         <code>NumberFormat</code>.
+	 */
+	private final boolean appendFast(double v, StringBuilder sb) {
+		if (!fast) {
+			return false;
+		}
+		double scaled = v * 100;
+		if (!(scaled < MAX_FAST)) {
+			return false;
+		}
+		double floor = Math.floor(scaled);
+		double frac = scaled - floor;
+		if (Math.abs(frac - 0.5) < TIE_MARGIN) {
+			return false;
+		}
+		long q = (long) floor + (frac > 0.5 ? 1 : 0);
+		appendGrouped(q / 100, sb);
+		int f = (int) (q % 100);
+		sb.append(decimalSeparator).append((char) (zeroDigit + f / 10)).append((char) (zeroDigit + f % 10));
+		return true;
+	}
+
+	private final void appendGrouped(long n, StringBuilder sb) {
+		// at most 7 digits, see MAX_FAST
+		int digits = 1;
+		long div = 1;
+		while (div * 10 <= n) {
+			div *= 10;
+			digits++;
+		}
+		for (int i = digits; i > 0; i--) {
+			sb.append((char) (zeroDigit + (int) (n / div % 10)));
+			if (groupingSize > 0 && i > 1 && (i - 1) % groupingSize == 0) {
+				sb.append(groupingSeparator);
+			}
+			div /= 10;
+		}
+	}
+
+	private final static int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 56) & (CACHE_SIZE - 1);
+	}
+
+	private final static double[] thresholds(int base) {
+		double[] t = new double[9];
+		for (int i = 0; i < t.length; i++) {
+			t[i] = Math.pow(base, i);
+		}
+		return t;
+	}
+
+	/**
+	 * Immutable cache slot, safe to publish through the racy cache array.
+	 */
+	private final static class CacheEntry {
+		private final long key;
+		private final String value;
+
+		private CacheEntry(long key, String value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,572 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * <code>ParallelZipWriter</code> creates zip files by compressing the entries
+ * concurrently.
+ * <p>
+ * Every entry is deflated independently on a worker thread into a memory
+ * buffer (or a temporary file for large entries). Entries that would not get
+ * smaller are stored uncompressed, see
+ * {@link ZipBuilder#isIncompressible(String)}. The compressed entries are
+ * then written to the target file in the order of the supplied files, so the
+ * result is a regular zip file readable by any zip tool.
+ * <p>
+ * A <code>ParallelZipWriter</code> can be reused, the statistics refer to the
+ * last zip file created.
+ *
+ * @author Jan Buchinger
+ *
+ * @see FSFx#createFlatZip(Vector, File)
+ */
+public final class ParallelZipWriter {
+	/**
+	 * Compressed data above this size is spilled to a temporary file instead of
+	 * being held in memory.
+	 */
+	private final static int MAX_MEMORY_BUFFER = 1024 * 1024;
+
+	private final static int IO_BUFFER = 64 * 1024;
+
+	private final static long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final int nThreads;
+	private final int level;
+
+	private long bytesRead;
+	private long bytesWritten;
+	private long millis;
+
+	/**
+	 * Constructs a new <code>ParallelZipWriter</code> that uses one thread per
+	 * available processor and the default compression level.
+	 */
+	public ParallelZipWriter() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a new <code>ParallelZipWriter</code> with the default
+	 * compression level.
+	 *
+	 * @param nThreads
+	 *            The number of compressing threads.
+	 */
+	public ParallelZipWriter(int nThreads) {
+		this(nThreads, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Constructs a new <code>ParallelZipWriter</code>.
+	 *
+	 * @param nThreads
+	 *            The number of compressing threads.
+	 * @param level
+	 *            The compression level (0-9) or
+	 *            <code>Deflater.DEFAULT_COMPRESSION</code>.
+	 */
+	public ParallelZipWriter(int nThreads, int level) {
+		if (nThreads < 1) {
+			throw new IllegalArgumentException("nThreads < 1");
+		}
+		if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("invalid compression level: " + level);
+		}
+		this.nThreads = nThreads;
+		this.level = level;
+	}
+
+	/**
+	 * Packs the provided files into a zip file into the root directory,
+	 * modification date is lost.
+	 *
+	 * @param files
+	 *            The Vector of Files to be zipped.
+	 * @param target
+	 *            The zip file
+	 * @return A boolean[] indicating zipping success of the corresponding files,
+	 *         all <code>false</code> if the zip file could not be completed and
+	 *         was deleted.
+	 */
+	public final boolean[] createFlatZip(Vector<File> files, File target) {
+		boolean[] bx = new boolean[files.size()];
+		bytesRead = bytesWritten = millis = 0;
+		long tStart = System.currentTimeMillis();
+
+		OutputStream out;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(target), IO_BUFFER);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return bx;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ParallelZipWriter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		// keep only a limited number of compressed entries in flight
+		int window = nThreads * 2;
+		LinkedList<Future<CompressedEntry>> pending = new LinkedList<Future<CompressedEntry>>();
+		List<CompressedEntry> written = new ArrayList<CompressedEntry>();
+		Set<String> names = new HashSet<String>();
+		long time = javaToDosTime(System.currentTimeMillis());
+		long offset = 0;
+		int next = 0;
+		boolean complete = false;
+		try {
+			while (next < bx.length || !pending.isEmpty()) {
+				while (next < bx.length && pending.size() < window) {
+					pending.add(pool.submit(new Compressor(next, files.get(next), level)));
+					next++;
+				}
+				CompressedEntry ce;
+				// removed only once done, so an interrupted get leaves the entry to
+				// be disposed below
+				try {
+					ce = pending.getFirst().get();
+				} catch (ExecutionException e) {
+					pending.removeFirst();
+					e.getCause().printStackTrace();
+					continue;
+				}
+				pending.removeFirst();
+				try {
+					if (!names.add(ce.name)) {
+						continue;
+					}
+					ce.time = time;
+					ce.offset = offset;
+					offset += writeLocalHeader(out, ce);
+					offset += ce.data.writeTo(out);
+					bytesRead += ce.size;
+					written.add(ce);
+					bx[ce.index] = true;
+				} finally {
+					ce.data.dispose();
+				}
+			}
+			bytesWritten = offset + writeCentralDirectory(out, written, offset);
+			complete = true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// entries that never started are cancelled, running ones stop at
+			// their next read and must finish before their buffers are freed
+			for (Runnable r : pool.shutdownNow()) {
+				((Future<?>) r).cancel(false);
+			}
+			boolean interrupted = false;
+			while (!pool.isTerminated()) {
+				try {
+					pool.awaitTermination(1, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			for (Future<CompressedEntry> f : pending) {
+				if (f.isDone() && !f.isCancelled()) {
+					try {
+						f.get().data.dispose();
+					} catch (Exception e) {}
+				}
+			}
+			try {
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+				complete = false;
+			}
+			// a zip without its central directory holds no file
+			if (!complete) {
+				Arrays.fill(bx, false);
+				if (target.isFile()) {
+					target.delete();
+				}
+			}
+		}
+		millis = System.currentTimeMillis() - tStart;
+		return bx;
+	}
+
+	/**
+	 * Gets the number of uncompressed bytes packed into the last zip file.
+	 *
+	 * @return The number of uncompressed bytes.
+	 */
+	public final long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Gets the length of the last zip file created.
+	 *
+	 * @return The length of the last zip file in bytes.
+	 */
+	public final long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Gets the time it took to create the last zip file.
+	 *
+	 * @return The duration in milliseconds.
+	 */
+	public final long getMillis() {
+		return millis;
+	}
+
+	/**
+	 * Gets the throughput of the last zip file creation as uncompressed bytes per
+	 * second.
+	 *
+	 * @return The throughput like "85,20 MiB/s".
+	 * @see FSFx#formatFileLength(double)
+	 */
+	public final String getThroughput() {
+		if (millis <= 0) {
+			return "0 bytes/s";
+		}
+		return FSFx.formatFileLength(bytesRead / (millis / 1000.0)).concat("/s");
+	}
+
+	private final static long writeLocalHeader(OutputStream out, CompressedEntry ce) throws IOException {
+		boolean zip64 = ce.size >= ZIP64_MAGIC || ce.csize >= ZIP64_MAGIC;
+		byte[] name = ce.name.getBytes(UTF8);
+		writeInt(out, 0x04034b50L);
+		writeShort(out, zip64 ? 45 : 20);
+		writeShort(out, 0x0800);
+		writeShort(out, ce.method);
+		writeInt(out, ce.time);
+		writeInt(out, ce.crc);
+		writeInt(out, zip64 ? ZIP64_MAGIC : ce.csize);
+		writeInt(out, zip64 ? ZIP64_MAGIC : ce.size);
+		writeShort(out, name.length);
+		writeShort(out, zip64 ? 20 : 0);
+		out.write(name);
+		if (zip64) {
+			writeShort(out, 0x0001);
+			writeShort(out, 16);
+			writeLong(out, ce.size);
+			writeLong(out, ce.csize);
+		}
+		return 30 + name.length + (zip64 ? 20 : 0);
+	}
+
+	private final static long writeCentralDirectory(OutputStream out, List<CompressedEntry> entries,
+			long cdOffset) throws IOException {
+		long cdSize = 0;
+		for (CompressedEntry ce : entries) {
+			byte[] name = ce.name.getBytes(UTF8);
+			boolean bigSize = ce.size >= ZIP64_MAGIC;
+			boolean bigCSize = ce.csize >= ZIP64_MAGIC;
+			boolean bigOffset = ce.offset >= ZIP64_MAGIC;
+			int extra = (bigSize ? 8 : 0) + (bigCSize ? 8 : 0) + (bigOffset ? 8 : 0);
+			int version = extra > 0 ? 45 : 20;
+			writeInt(out, 0x02014b50L);
+			writeShort(out, version);
+			writeShort(out, version);
+			writeShort(out, 0x0800);
+			writeShort(out, ce.method);
+			writeInt(out, ce.time);
+			writeInt(out, ce.crc);
+			writeInt(out, bigCSize ? ZIP64_MAGIC : ce.csize);
+			writeInt(out, bigSize ? ZIP64_MAGIC : ce.size);
+			writeShort(out, name.length);
+			writeShort(out, extra > 0 ? extra + 4 : 0);
+			writeShort(out, 0); // comment length
+			writeShort(out, 0); // disk number
+			writeShort(out, 0); // internal attributes
+			writeInt(out, 0); // external attributes
+			writeInt(out, bigOffset ? ZIP64_MAGIC : ce.offset);
+			out.write(name);
+			if (extra > 0) {
+				writeShort(out, 0x0001);
+				writeShort(out, extra);
+				if (bigSize)
+					writeLong(out, ce.size);
+				if (bigCSize)
+					writeLong(out, ce.csize);
+				if (bigOffset)
+					writeLong(out, ce.offset);
+			}
+			cdSize += 46 + name.length + (extra > 0 ? extra + 4 : 0);
+		}
+
+		int count = entries.size();
+		long length = cdSize + 22;
+		if (count >= 0xFFFF || cdSize >= ZIP64_MAGIC || cdOffset >= ZIP64_MAGIC) {
+			length += 76;
+			long zip64EndOffset = cdOffset + cdSize;
+			// zip64 end of central directory record
+			writeInt(out, 0x06064b50L);
+			writeLong(out, 44);
+			writeShort(out, 45);
+			writeShort(out, 45);
+			writeInt(out, 0);
+			writeInt(out, 0);
+			writeLong(out, count);
+			writeLong(out, count);
+			writeLong(out, cdSize);
+			writeLong(out, cdOffset);
+			// zip64 end of central directory locator
+			writeInt(out, 0x07064b50L);
+			writeInt(out, 0);
+			writeLong(out, zip64EndOffset);
+			writeInt(out, 1);
+		}
+		writeInt(out, 0x06054b50L);
+		writeShort(out, 0);
+		writeShort(out, 0);
+		writeShort(out, Math.min(count, 0xFFFF));
+		writeShort(out, Math.min(count, 0xFFFF));
+		writeInt(out, Math.min(cdSize, ZIP64_MAGIC));
+		writeInt(out, Math.min(cdOffset, ZIP64_MAGIC));
+		writeShort(out, 0);
+		return length;
+	}
+
+	private final static void writeShort(OutputStream out, int v) throws IOException {
+		out.write(v & 0xFF);
+		out.write((v >>> 8) & 0xFF);
+	}
+
+	private final static void writeInt(OutputStream out, long v) throws IOException {
+		out.write((int) (v & 0xFF));
+		out.write((int) ((v >>> 8) & 0xFF));
+		out.write((int) ((v >>> 16) & 0xFF));
+		out.write((int) ((v >>> 24) & 0xFF));
+	}
+
+	private final static void writeLong(OutputStream out, long v) throws IOException {
+		writeInt(out, v & 0xFFFFFFFFL);
+		writeInt(out, v >>> 32);
+	}
+
+	private final static long javaToDosTime(long time) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(time);
+		int year = c.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return ((long) (year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21)
+				| (c.get(Calendar.DAY_OF_MONTH) << 16) | (c.get(Calendar.HOUR_OF_DAY) << 11)
+				| (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+	}
+
+	/**
+	 * Compresses one file on a worker thread.
+	 */
+	private final static class Compressor implements Callable<CompressedEntry> {
+		private final int index;
+		private final File file;
+		private final int level;
+
+		private Compressor(int index, File file, int level) {
+			this.index = index;
+			this.file = file;
+			this.level = level;
+		}
+
+		@Override
+		public CompressedEntry call() throws IOException {
+			CompressedEntry ce = new CompressedEntry(index, file.getName());
+			ce.data = new EntryBuffer();
+			CRC32 crc = new CRC32();
+			byte[] b = new byte[IO_BUFFER];
+			int count;
+			if (ZipBuilder.shouldStore(file, b)) {
+				try (InputStream in = new FileInputStream(file)) {
+					while ((count = in.read(b)) > 0) {
+						checkInterrupted();
+						crc.update(b, 0, count);
+						ce.data.write(b, 0, count);
+						ce.size += count;
+					}
+					ce.csize = ce.size;
+					ce.crc = crc.getValue();
+					ce.method = 0;
+					return ce;
+				} catch (IOException e) {
+					ce.data.dispose();
+					throw e;
+				}
+			}
+			Deflater deflater = new Deflater(level, true);
+			try (InputStream in = new FileInputStream(file)) {
+				DeflaterOutputStream dos = new DeflaterOutputStream(ce.data, deflater, IO_BUFFER);
+				while ((count = in.read(b)) > 0) {
+					checkInterrupted();
+					crc.update(b, 0, count);
+					dos.write(b, 0, count);
+				}
+				dos.finish();
+				ce.size = deflater.getBytesRead();
+				ce.csize = deflater.getBytesWritten();
+				ce.crc = crc.getValue();
+				ce.method = 8;
+				return ce;
+			} catch (IOException e) {
+				ce.data.dispose();
+				throw e;
+			} finally {
+				deflater.end();
+			}
+		}
+
+		private void checkInterrupted() throws InterruptedIOException {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new InterruptedIOException("compression of " + file + " cancelled");
+			}
+		}
+	}
+
+	/**
+	 * A compressed entry waiting to be written.
+	 */
+	private final static class CompressedEntry {
+		private final int index;
+		private final String name;
+		private EntryBuffer data;
+		private int method;
+		private long crc;
+		private long size;
+		private long csize;
+		private long time;
+		private long offset;
+
+		private CompressedEntry(int index, String name) {
+			this.index = index;
+			this.name = name;
+		}
+	}
+
+	/**
+	 * An <code>OutputStream</code> that holds up to
+	 * <code>MAX_MEMORY_BUFFER</code> bytes in memory and continues in a
+	 * temporary file.
+	 */
+	private final static class EntryBuffer extends OutputStream {
+		private byte[] buf = new byte[8192];
+		private int count;
+		private File spill;
+		private OutputStream spillOut;
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (spillOut == null && count + len > MAX_MEMORY_BUFFER) {
+				spill = File.createTempFile("mishmash-zip", ".tmp");
+				spillOut = new BufferedOutputStream(new FileOutputStream(spill), IO_BUFFER);
+				spillOut.write(buf, 0, count);
+				buf = null;
+			}
+			if (spillOut != null) {
+				spillOut.write(b, off, len);
+				return;
+			}
+			if (count + len > buf.length) {
+				byte[] nb = new byte[Math.min(MAX_MEMORY_BUFFER, Math.max(buf.length * 2, count + len))];
+				System.arraycopy(buf, 0, nb, 0, count);
+				buf = nb;
+			}
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (spillOut != null) {
+				spillOut.close();
+			}
+		}
+
+		private long writeTo(OutputStream out) throws IOException {
+			if (spill == null) {
+				out.write(buf, 0, count);
+				return count;
+			}
+			spillOut.close();
+			long n = 0;
+			byte[] b = new byte[IO_BUFFER];
+			int read;
+			try (InputStream in = new FileInputStream(spill)) {
+				while ((read = in.read(b)) > 0) {
+					out.write(b, 0, read);
+					n += read;
+				}
+			}
+			return n;
+		}
+
+		private void dispose() {
+			buf = null;
+			if (spill != null) {
+				try {
+					spillOut.close();
+				} catch (IOException e) {}
+				spill.delete();
+				spill = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash;
+
+/**
+ * A <code>TransferListener</code> is notified about the progress of a copy
+ * operation.
+ * <p>
+ * The listener is called on the copying thread.
+ *
+ * @author Jan Buchinger
+ *
+ * @see FSFx#copyFile(java.io.File, java.io.File, TransferListener)
+ */
+public interface TransferListener {
+	/**
+	 * Called after a chunk of data was copied.
+	 *
+	 * @param bytes
+	 *            The number of bytes copied since the last call.
+	 * @param bytesCopied
+	 *            The total number of bytes copied so far.
+	 */
+	public void transferred(long bytes, long bytesCopied);
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <code>TransferMeter</code> measures the speed of a data transfer.
+ * <p>
+ * Any number of threads may record transferred bytes by <code>add</code>
+ * without locking, the counts are spread over padded cells like a
+ * <code>LongAdder</code>. The rates are computed from samples of the total
+ * that are taken when a rate is queried (at most every
+ * <code>sampleInterval</code>) and kept in a ring buffer:
+ * <ul>
+ * <li><code>getRate()</code> is the rate over the samples in the ring buffer
+ * (the last few seconds)
+ * <li><code>getAverageRate()</code> is an exponentially weighted moving
+ * average that is used for the estimated time left
+ * <li><code>getLifetimeRate()</code> is the rate since the meter was started
+ * </ul>
+ * All times are measured by <code>System.nanoTime()</code>.
+ *
+ * @author Jan Buchinger
+ *
+ * @see TransferListener
+ */
+public final class TransferMeter implements TransferListener {
+	/**
+	 * longs per cell, cells are padded to 64 bytes to avoid false sharing.
+	 */
+	private final static int PAD = 8;
+
+	/**
+	 * The time constant of the moving average in nanoseconds.
+	 */
+	private final static double EWMA_TAU = 5e9;
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	private final long sampleInterval;
+	private final long[] sampleTimes;
+	private final long[] sampleBytes;
+	private int sampleHead;
+	private int sampleCount;
+
+	private volatile long expectedBytes;
+	private long tStart;
+	private double ewma;
+
+	/**
+	 * Constructs a new <code>TransferMeter</code> that samples every 250
+	 * milliseconds and computes the current rate over the last 5 seconds.
+	 */
+	public TransferMeter() {
+		this(250, 20);
+	}
+
+	/**
+	 * Constructs a new <code>TransferMeter</code>.
+	 *
+	 * @param sampleIntervalMillis
+	 *            The minimum time between two samples in milliseconds.
+	 * @param nSamples
+	 *            The number of samples to compute the current rate from.
+	 */
+	public TransferMeter(long sampleIntervalMillis, int nSamples) {
+		if (nSamples < 2) {
+			throw new IllegalArgumentException("nSamples < 2");
+		}
+		int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+		cells = new AtomicLongArray(n * PAD);
+		mask = n - 1;
+		sampleInterval = sampleIntervalMillis * 1000000L;
+		sampleTimes = new long[nSamples];
+		sampleBytes = new long[nSamples];
+		expectedBytes = -1;
+		reset();
+	}
+
+	/**
+	 * Resets the meter to zero bytes and restarts the time measurement.
+	 */
+	public final synchronized void reset() {
+		for (int i = 0; i < cells.length(); i += PAD) {
+			cells.set(i, 0);
+		}
+		tStart = System.nanoTime();
+		sampleHead = 0;
+		sampleCount = 1;
+		sampleTimes[0] = tStart;
+		sampleBytes[0] = 0;
+		ewma = 0;
+	}
+
+	/**
+	 * Records transferred bytes. This method does not block.
+	 *
+	 * @param bytes
+	 *            The number of bytes transferred.
+	 */
+	public final void add(long bytes) {
+		long id = Thread.currentThread().getId();
+		cells.addAndGet((int) ((id ^ (id >>> 16)) & mask) * PAD, bytes);
+	}
+
+	/**
+	 * Records transferred bytes, so the meter can be passed to copy methods
+	 * directly.
+	 *
+	 * @see FSFx#copyFile(java.io.File, java.io.File, TransferListener)
+	 */
+	@Override
+	public final void transferred(long bytes, long bytesCopied) {
+		add(bytes);
+	}
+
+	/**
+	 * Gets the total number of bytes recorded.
+	 *
+	 * @return The number of bytes transferred since the start.
+	 */
+	public final long getBytes() {
+		long sum = 0;
+		for (int i = 0; i < cells.length(); i += PAD) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * Sets the total number of bytes of the transfer, to compute the estimated
+	 * time left.
+	 *
+	 * @param expectedBytes
+	 *            The total number of bytes or -1 if unknown.
+	 */
+	public final void setExpectedBytes(long expectedBytes) {
+		this.expectedBytes = expectedBytes;
+	}
+
+	/**
+	 * Gets the current rate measured over the recent samples.
+	 *
+	 * @return The rate in bytes per second.
+	 */
+	public final synchronized double getRate() {
+		sample();
+		int oldest = (sampleHead - sampleCount + 1 + sampleTimes.length) % sampleTimes.length;
+		long dt = sampleTimes[sampleHead] - sampleTimes[oldest];
+		if (dt <= 0) {
+			return 0;
+		}
+		return (sampleBytes[sampleHead] - sampleBytes[oldest]) * 1e9 / dt;
+	}
+
+	/**
+	 * Gets the exponentially weighted moving average of the rate.
+	 *
+	 * @return The rate in bytes per second.
+	 */
+	public final synchronized double getAverageRate() {
+		sample();
+		return ewma;
+	}
+
+	/**
+	 * Gets the average rate since the start.
+	 *
+	 * @return The rate in bytes per second.
+	 */
+	public final double getLifetimeRate() {
+		long dt;
+		synchronized (this) {
+			dt = System.nanoTime() - tStart;
+		}
+		if (dt <= 0) {
+			return 0;
+		}
+		return getBytes() * 1e9 / dt;
+	}
+
+	/**
+	 * Gets the estimated time left based on the moving average.
+	 *
+	 * @return The estimated time left in milliseconds or -1 if the expected
+	 *         bytes are unknown or nothing was transferred yet.
+	 * @see #setExpectedBytes(long)
+	 */
+	public final long getEtaMillis() {
+		long expected = expectedBytes;
+		double rate = getAverageRate();
+		if (expected < 0 || rate <= 0) {
+			return -1;
+		}
+		return (long) (Math.max(0, expected - getBytes()) * 1000 / rate);
+	}
+
+	/**
+	 * Formats the current rate.
+	 *
+	 * @return The rate like "85,20 MiB/s".
+	 * @see FSFx#formatFileLength(double)
+	 */
+	public final String formatRate() {
+		return FSFx.formatFileLength(getRate()).concat("/s");
+	}
+
+	/**
+	 * Formats the moving average rate.
+	 *
+	 * @return The rate like "85,20 MiB/s".
+	 * @see FSFx#formatFileLength(double)
+	 */
+	public final String formatAverageRate() {
+		return FSFx.formatFileLength(getAverageRate()).concat("/s");
+	}
+
+	/**
+	 * Formats the moving average rate in decimal magnitudes.
+	 *
+	 * @return The rate like "89,34 MB/s".
+	 * @see FSFx#formatFileLengthDec(double)
+	 */
+	public final String formatAverageRateDec() {
+		return FSFx.formatFileLengthDec(getAverageRate()).concat("/s");
+	}
+
+	/**
+	 * Formats the estimated time left.
+	 *
+	 * @return The time left as HH:mm:ss or "--:--:--" if unknown.
+	 * @see #getEtaMillis()
+	 */
+	public final String formatEta() {
+		long eta = getEtaMillis();
+		if (eta < 0) {
+			return "--:--:--";
+		}
+		long seconds = eta / 1000;
+		long minutes = seconds / 60;
+		long hours = minutes / 60;
+		StringBuilder sb = new StringBuilder(8);
+		appendTwoDigits(sb, hours).append(':');
+		appendTwoDigits(sb, minutes % 60).append(':');
+		return appendTwoDigits(sb, seconds % 60).toString();
+	}
+
+	private final static StringBuilder appendTwoDigits(StringBuilder sb, long n) {
+		if (n < 10) {
+			sb.append('0');
+		}
+		return sb.append(n);
+	}
+
+	/**
+	 * Takes a sample if the last one is older than the sample interval.
+	 */
+	private final void sample() {
+		long now = System.nanoTime();
+		long dt = now - sampleTimes[sampleHead];
+		if (dt < sampleInterval || dt <= 0) {
+			return;
+		}
+		long bytes = getBytes();
+		double rate = (bytes - sampleBytes[sampleHead]) * 1e9 / dt;
+		if (sampleCount == 1 && sampleBytes[sampleHead] == 0) {
+			ewma = rate;
+		} else {
+			double alpha = 1 - Math.exp(-dt / EWMA_TAU);
+			ewma += alpha * (rate - ewma);
+		}
+		sampleHead = (sampleHead + 1) % sampleTimes.length;
+		sampleTimes[sampleHead] = now;
+		sampleBytes[sampleHead] = bytes;
+		if (sampleCount < sampleTimes.length) {
+			sampleCount++;
+		}
+	}
+}
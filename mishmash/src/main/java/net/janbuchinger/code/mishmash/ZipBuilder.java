@@ -0,0 +1,387 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * <code>ZipBuilder</code> streams files and directory trees into a zip file.
+ * <p>
+ * Unlike <code>FSFx.createFlatZip</code> the relative paths and modification
+ * times are preserved. Files that will not get smaller by compression are
+ * added as <code>STORED</code> entries: files with a known compressed
+ * extension (like &quot;.jpg&quot; or &quot;.zip&quot;) and files whose first
+ * bytes do not compress.
+ * <p>
+ * Every file is copied to memory or, if it is larger than 1 MiB, to a
+ * temporary file before its entry is started. A file that cannot be read is
+ * skipped without breaking the zip file, and a <code>STORED</code> entry always
+ * gets the checksum of exactly the bytes written.
+ *
+ * @author Jan Buchinger
+ *
+ * @see FSFx#createZip(File, File)
+ */
+public final class ZipBuilder implements Closeable {
+	/**
+	 * Extensions of file formats that are compressed already.
+	 */
+	private final static Set<String> INCOMPRESSIBLE = new HashSet<String>(Arrays.asList("7z", "aac", "avi",
+			"bz2", "cab", "docx", "epub", "flac", "gif", "gz", "heic", "jar", "jpeg", "jpg", "m4a", "m4v",
+			"mkv", "mov", "mp3", "mp4", "mpeg", "mpg", "odg", "odp", "ods", "odt", "ogg", "opus", "png",
+			"pptx", "rar", "tgz", "txz", "webm", "webp", "xlsx", "xz", "zip", "zst"));
+
+	/**
+	 * Number of leading bytes compressed to estimate the compressibility.
+	 */
+	private final static int SAMPLE_SIZE = 64 * 1024;
+
+	/**
+	 * A sample compressed to more than this ratio is considered incompressible.
+	 */
+	private final static double STORE_RATIO = 0.95;
+
+	private final static int IO_BUFFER = 64 * 1024;
+
+	/**
+	 * Files up to this length are copied to memory, larger ones to a temporary
+	 * file.
+	 */
+	private final static int SPOOL_MEMORY = 1024 * 1024;
+
+	private final ZipOutputStream out;
+	private final byte[] buffer;
+	private final CRC32 crc;
+	private byte[] memory;
+	private long spoolLength;
+
+	private int nStored;
+	private int nDeflated;
+
+	/**
+	 * Constructs a new <code>ZipBuilder</code> writing to the specified file.
+	 *
+	 * @param target
+	 *            The zip file to create.
+	 * @throws IOException
+	 *             If the target file cannot be opened for writing.
+	 */
+	public ZipBuilder(File target) throws IOException {
+		this(new BufferedOutputStream(new FileOutputStream(target), IO_BUFFER));
+	}
+
+	/**
+	 * Constructs a new <code>ZipBuilder</code> writing to the specified
+	 * <code>OutputStream</code>.
+	 *
+	 * @param out
+	 *            The stream to write the zip data to. It is closed by
+	 *            <code>close()</code>.
+	 */
+	public ZipBuilder(OutputStream out) {
+		this.out = new ZipOutputStream(out);
+		buffer = new byte[IO_BUFFER];
+		crc = new CRC32();
+		memory = new byte[IO_BUFFER];
+		nStored = nDeflated = 0;
+	}
+
+	/**
+	 * Adds all files and directories under the specified directory. The entry
+	 * names are relative to the directory, the directory itself is not part of
+	 * the names.
+	 *
+	 * @param directory
+	 *            The directory to add.
+	 * @throws IOException
+	 *             If writing to the zip file fails. Files that cannot be read
+	 *             are skipped.
+	 */
+	public final void addTree(File directory) throws IOException {
+		addTree(directory, "");
+	}
+
+	/**
+	 * Adds all files and directories under the specified directory. The entry
+	 * names are relative to the directory and prepended by the specified
+	 * prefix.
+	 *
+	 * @param directory
+	 *            The directory to add.
+	 * @param prefix
+	 *            The path inside the zip file like &quot;backup/&quot; or an
+	 *            empty <code>String</code> for the root.
+	 * @throws IOException
+	 *             If writing to the zip file fails. Files that cannot be read
+	 *             are skipped.
+	 */
+	public final void addTree(File directory, final String prefix) throws IOException {
+		final Path root = directory.toPath();
+		final String pre = prefix.length() == 0 || prefix.endsWith("/") ? prefix : prefix.concat("/");
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(root)) {
+					ZipEntry ze = new ZipEntry(pre.concat(entryName(root, dir)).concat("/"));
+					ze.setTime(attrs.lastModifiedTime().toMillis());
+					ze.setMethod(ZipEntry.STORED);
+					ze.setSize(0);
+					ze.setCrc(0);
+					out.putNextEntry(ze);
+					out.closeEntry();
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (attrs.isRegularFile()) {
+					addFile(file.toFile(), pre.concat(entryName(root, file)));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) {
+				exc.printStackTrace();
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Adds a single file with the specified entry name. The modification time
+	 * of the file is preserved.
+	 *
+	 * @param file
+	 *            The file to add.
+	 * @param name
+	 *            The entry name, directories separated by &quot;/&quot;.
+	 * @return true if the file was added, false if it could not be read and
+	 *         nothing was written.
+	 * @throws IOException
+	 *             If writing to the zip file fails.
+	 */
+	public final boolean addFile(File file, String name) throws IOException {
+		ZipEntry ze = new ZipEntry(name);
+		ze.setTime(file.lastModified());
+		boolean store = shouldStore(file, buffer);
+		File spill;
+		try {
+			spill = spool(file);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		try {
+			if (store) {
+				ze.setMethod(ZipEntry.STORED);
+				ze.setSize(spoolLength);
+				ze.setCompressedSize(spoolLength);
+				ze.setCrc(crc.getValue());
+			} else {
+				ze.setMethod(ZipEntry.DEFLATED);
+			}
+			out.putNextEntry(ze);
+			if (spill == null) {
+				out.write(memory, 0, (int) spoolLength);
+			} else {
+				try (InputStream in = new FileInputStream(spill)) {
+					int count;
+					while ((count = in.read(buffer)) > 0) {
+						out.write(buffer, 0, count);
+					}
+				}
+			}
+			out.closeEntry();
+		} finally {
+			if (spill != null) {
+				spill.delete();
+			}
+		}
+		if (store) {
+			nStored++;
+		} else {
+			nDeflated++;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the number of files added without compression.
+	 *
+	 * @return The number of <code>STORED</code> entries.
+	 */
+	public final int getStoredCount() {
+		return nStored;
+	}
+
+	/**
+	 * Gets the number of files added with compression.
+	 *
+	 * @return The number of <code>DEFLATED</code> entries.
+	 */
+	public final int getDeflatedCount() {
+		return nDeflated;
+	}
+
+	/**
+	 * Finishes the zip file and closes the underlying stream.
+	 */
+	@Override
+	public final void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Copies a file to <code>memory</code> or to a temporary file and computes
+	 * its checksum and length on the way.
+	 *
+	 * @return The temporary file or <code>null</code> if the file fits into
+	 *         memory.
+	 */
+	private final File spool(File file) throws IOException {
+		crc.reset();
+		spoolLength = 0;
+		File spill = null;
+		OutputStream spillOut = null;
+		int count;
+		try (InputStream in = new FileInputStream(file)) {
+			while ((count = in.read(buffer)) > 0) {
+				crc.update(buffer, 0, count);
+				if (spill == null && spoolLength + count > SPOOL_MEMORY) {
+					spill = File.createTempFile("mishmash-zip", ".tmp");
+					spillOut = new BufferedOutputStream(new FileOutputStream(spill), IO_BUFFER);
+					spillOut.write(memory, 0, (int) spoolLength);
+				}
+				if (spill == null) {
+					while (spoolLength + count > memory.length) {
+						memory = Arrays.copyOf(memory, memory.length * 2);
+					}
+					System.arraycopy(buffer, 0, memory, (int) spoolLength, count);
+				} else {
+					spillOut.write(buffer, 0, count);
+				}
+				spoolLength += count;
+			}
+			if (spillOut != null) {
+				spillOut.close();
+			}
+		} catch (IOException e) {
+			if (spill != null) {
+				try {
+					spillOut.close();
+				} catch (IOException e1) {}
+				spill.delete();
+			}
+			throw e;
+		}
+		return spill;
+	}
+
+	private final static String entryName(Path root, Path p) {
+		StringBuilder sb = new StringBuilder();
+		for (Path part : root.relativize(p)) {
+			if (sb.length() > 0) {
+				sb.append('/');
+			}
+			sb.append(part.toString());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Checks whether the file name has an extension of an already compressed
+	 * file format.
+	 *
+	 * @param name
+	 *            The file name.
+	 * @return true if compressing the file is most probably useless.
+	 */
+	public final static boolean isIncompressible(String name) {
+		int dot = name.lastIndexOf('.');
+		if (dot < 0 || dot == name.length() - 1) {
+			return false;
+		}
+		return INCOMPRESSIBLE.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Decides whether a file should be stored without compression by its
+	 * extension or by compressing a sample of its first bytes.
+	 *
+	 * @param file
+	 *            The file to check.
+	 * @param buffer
+	 *            A buffer of at least <code>SAMPLE_SIZE</code> bytes to read the
+	 *            sample into.
+	 * @return true if the file should be <code>STORED</code>.
+	 */
+	final static boolean shouldStore(File file, byte[] buffer) {
+		if (isIncompressible(file.getName())) {
+			return true;
+		}
+		int n = 0;
+		try (InputStream in = new FileInputStream(file)) {
+			int count;
+			while (n < SAMPLE_SIZE && (count = in.read(buffer, n, SAMPLE_SIZE - n)) > 0) {
+				n += count;
+			}
+		} catch (IOException e) {
+			return false;
+		}
+		if (n < 512) {
+			// too small to tell, the overhead does not matter
+			return false;
+		}
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		try {
+			deflater.setInput(buffer, 0, n);
+			deflater.finish();
+			byte[] sink = new byte[8192];
+			long limit = (long) (n * STORE_RATIO);
+			while (!deflater.finished()) {
+				deflater.deflate(sink);
+				if (deflater.getBytesWritten() > limit) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			deflater.end();
+		}
+	}
+}
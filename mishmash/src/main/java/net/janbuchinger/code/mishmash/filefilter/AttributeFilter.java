@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.filefilter;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * An <code>AttributeFilter</code> decides about a path by its already read
+ * attributes, so filtering costs no further file system access.
+ *
+ * @author Jan Buchinger
+ *
+ * @see FileScanner
+ */
+public interface AttributeFilter {
+	/**
+	 * Tests whether a path should be accepted.
+	 *
+	 * @param path
+	 *            The path to test.
+	 * @param attrs
+	 *            The attributes of the path. On file systems supporting DOS
+	 *            attributes these are <code>DosFileAttributes</code>.
+	 * @return true if the path is accepted.
+	 */
+	public boolean accept(Path path, BasicFileAttributes attrs);
+}
@@ -17,6 +17,10 @@ package net.janbuchinger.code.mishmash.filefilter;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import net.janbuchinger.code.mishmash.DirectoryProbe;
 
 /**
  * <code>DirectoryFileFilter</code> is a <code>FileFilter</code> that accepts
@@ -25,9 +29,11 @@ import java.io.FileFilter;
  * @author Jan Buchinger
  *
  * @see File#listFiles(FileFilter)
+ * @see FileScanner
  */
-public class DirectoryFileFilter implements FileFilter {
+public class DirectoryFileFilter implements FileFilter, AttributeFilter {
 	private final boolean acceptHidden;
+	private final boolean acceptEmpty;
 
 	/**
 	 * Constructs a new <code>DirectoryFileFilter</code> that accepts all
@@ -35,6 +41,7 @@ public class DirectoryFileFilter implements FileFilter {
 	 */
 	public DirectoryFileFilter() {
 		acceptHidden = true;
+		acceptEmpty = true;
 	}
 
 	/**
@@ -43,15 +50,55 @@ public class DirectoryFileFilter implements FileFilter {
 	 */
 	public DirectoryFileFilter(boolean acceptHidden) {
 		this.acceptHidden = acceptHidden;
+		acceptEmpty = true;
+	}
+
+	/**
+	 * Constructs a new <code>DirectoryFileFilter</code> that optionally rejects
+	 * hidden and empty directories. Emptiness is checked by the shared
+	 * <code>DirectoryProbe</code>, so repeated checks are cached.
+	 * 
+	 * @param acceptHidden
+	 *            false to reject directories with a name beginning with
+	 *            &quot;.&quot;.
+	 * @param acceptEmpty
+	 *            false to reject directories without entries.
+	 * 
+	 * @see DirectoryProbe#getShared()
+	 */
+	public DirectoryFileFilter(boolean acceptHidden, boolean acceptEmpty) {
+		this.acceptHidden = acceptHidden;
+		this.acceptEmpty = acceptEmpty;
 	}
 
 	/**
-	 * Depending on the on construction specified boolean filters hidden directories
-	 * (name beginning with &quot;.&quot;) or not.
+	 * Depending on the on construction specified booleans filters hidden directories
+	 * (name beginning with &quot;.&quot;) and empty directories or not.
 	 */
 	@Override
 	public boolean accept(File pathname) {
-		return acceptHidden ? pathname.isDirectory()
-				: pathname.isDirectory() && !pathname.getName().startsWith(".");
+		if (!acceptHidden && pathname.getName().startsWith(".")) {
+			return false;
+		}
+		if (!pathname.isDirectory()) {
+			return false;
+		}
+		return acceptEmpty || !DirectoryProbe.getShared().probe(pathname, false).isEmpty();
+	}
+
+	/**
+	 * Like <code>accept(File)</code>, but decides by the supplied attributes
+	 * without further file system access, except for the emptiness check.
+	 */
+	@Override
+	public boolean accept(Path path, BasicFileAttributes attrs) {
+		if (!attrs.isDirectory()) {
+			return false;
+		}
+		Path name = path.getFileName();
+		if (!acceptHidden && name != null && name.toString().startsWith(".")) {
+			return false;
+		}
+		return acceptEmpty || !DirectoryProbe.getShared().probe(path, false).isEmpty();
 	}
 }
@@ -17,6 +17,8 @@ package net.janbuchinger.code.mishmash.filefilter;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * <code>ExtensionsFileFilter</code> is a <code>FileFilter</code> that accepts
@@ -25,10 +27,20 @@ import java.io.FileFilter;
  * @author Jan Buchinger
  * 
  * @see File#listFiles(FileFilter)
+ * @see FileScanner
  */
-public class ExtensionFileFilter implements FileFilter {
+public class ExtensionFileFilter implements FileFilter, AttributeFilter {
 	private final String[] extensions;
 	private final boolean acceptHidden;
+	/**
+	 * The extensions by the folded last character if that is ASCII.
+	 */
+	private final String[][] asciiBuckets;
+	/**
+	 * The extensions ending with other characters.
+	 */
+	private final String[] otherExtensions;
+	private final boolean acceptAll;
 
 	/**
 	 * Constructs a new <code>ExtensionsFileFilter</code> that accepts the specified
@@ -45,6 +57,37 @@ public class ExtensionFileFilter implements FileFilter {
 		for (int i = 0; i < extensions.length; i++) {
 			this.extensions[i] = extensions[i].toLowerCase();
 		}
+		boolean all = false;
+		int[] counts = new int[128];
+		int others = 0;
+		for (String ext : this.extensions) {
+			if (ext.length() == 0) {
+				all = true;
+			} else if (fold(ext.charAt(ext.length() - 1)) < 128) {
+				counts[fold(ext.charAt(ext.length() - 1))]++;
+			} else {
+				others++;
+			}
+		}
+		acceptAll = all;
+		asciiBuckets = new String[128][];
+		otherExtensions = new String[others];
+		others = 0;
+		int c;
+		for (String ext : this.extensions) {
+			if (ext.length() == 0) {
+				continue;
+			}
+			c = fold(ext.charAt(ext.length() - 1));
+			if (c < 128) {
+				if (asciiBuckets[c] == null) {
+					asciiBuckets[c] = new String[counts[c]];
+				}
+				asciiBuckets[c][--counts[c]] = ext;
+			} else {
+				otherExtensions[others++] = ext;
+			}
+		}
 	}
 
 	/**
@@ -88,21 +131,71 @@ public class ExtensionFileFilter implements FileFilter {
 	 */
 	@Override
 	public boolean accept(File pathname) {
+		// the name test costs no system call
+		if (!matches(pathname.getName())) {
+			return false;
+		}
 		if (!pathname.isFile()) {
 			return false;
 		}
-		if (!acceptHidden && pathname.isHidden()) {
+		return acceptHidden || !pathname.isHidden();
+	}
+
+	/**
+	 * Accepts all regular files that match (one of) the specified extension(s) by
+	 * the supplied attributes, without further file system access.
+	 * 
+	 * @see FileScanner#isHidden(Path, BasicFileAttributes)
+	 */
+	@Override
+	public boolean accept(Path path, BasicFileAttributes attrs) {
+		if (!attrs.isRegularFile()) {
+			return false;
+		}
+		Path name = path.getFileName();
+		if (name == null || !matches(name.toString())) {
+			return false;
+		}
+		return acceptHidden || !FileScanner.isHidden(path, attrs);
+	}
+
+	/**
+	 * Matches the name against the extensions ending with the same character,
+	 * without allocating.
+	 */
+	final boolean matches(String name) {
+		if (acceptAll) {
+			return true;
+		}
+		int n = name.length();
+		if (n == 0) {
 			return false;
 		}
-		String name = pathname.getName();
+		int c = fold(name.charAt(n - 1));
+		if (c < 128) {
+			return matches(name, asciiBuckets[c]);
+		}
+		return matches(name, otherExtensions);
+	}
+
+	private final static boolean matches(String name, String[] extensions) {
+		if (extensions == null) {
+			return false;
+		}
+		int n = name.length();
 		for (String ext : extensions) {
-			if (name.length() < ext.length()) {
-				continue;
-			}
-			if (name.substring(name.length() - ext.length(), name.length()).toLowerCase().equals(ext)) {
+			if (n >= ext.length() && name.regionMatches(true, n - ext.length(), ext, 0, ext.length())) {
 				return true;
 			}
 		}
 		return false;
 	}
+
+	/**
+	 * Folds the case of a character the way <code>regionMatches</code> compares
+	 * ignoring case, so equal characters end up in the same bucket.
+	 */
+	private final static int fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
 }
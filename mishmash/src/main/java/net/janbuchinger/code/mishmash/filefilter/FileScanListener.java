@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.filefilter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A <code>FileScanListener</code> receives the paths accepted by a
+ * <code>FileScanner</code> while the scan is running.
+ * <p>
+ * The listener is called concurrently by the threads of the scanner and must be
+ * thread safe.
+ *
+ * @author Jan Buchinger
+ *
+ * @see FileScanner#scan(Path, AttributeFilter, int, FileScanListener)
+ */
+public interface FileScanListener {
+	/**
+	 * Called for every accepted path.
+	 *
+	 * @param path
+	 *            The accepted path.
+	 * @param attrs
+	 *            The attributes of the path.
+	 */
+	public void accepted(Path path, BasicFileAttributes attrs);
+
+	/**
+	 * Called when a directory could not be listed or the attributes of an entry
+	 * could not be read.
+	 *
+	 * @param path
+	 *            The path that failed.
+	 * @param e
+	 *            The cause.
+	 */
+	public void failed(Path path, IOException e);
+}
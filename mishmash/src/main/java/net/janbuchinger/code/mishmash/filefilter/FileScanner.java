@@ -0,0 +1,239 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.filefilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <code>FileScanner</code> walks a directory tree in parallel and passes the
+ * entries accepted by an <code>AttributeFilter</code> to a
+ * <code>FileScanListener</code>.
+ * <p>
+ * Every directory is listed by a <code>DirectoryStream</code> in its own task
+ * of a <code>ForkJoinPool</code>, so sub directories are scanned by idle
+ * threads. The attributes of every entry are read exactly once, the filter and
+ * the listener get these attributes. On file systems with native DOS
+ * attributes these are read instead of the basic attributes, so the hidden flag
+ * is known too.
+ * <p>
+ * Symbolic links are reported with the attributes of their target, but linked
+ * directories are not descended into.
+ *
+ * @author Jan Buchinger
+ *
+ * @see DirectoryFileFilter
+ * @see ExtensionFileFilter
+ */
+public final class FileScanner {
+	private final ForkJoinPool pool;
+	private volatile boolean cancelled;
+
+	/**
+	 * Constructs a new <code>FileScanner</code> using one thread per available
+	 * processor.
+	 */
+	public FileScanner() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a new <code>FileScanner</code>.
+	 *
+	 * @param parallelism
+	 *            The number of threads scanning in parallel.
+	 */
+	public FileScanner(int parallelism) {
+		pool = new ForkJoinPool(parallelism);
+		cancelled = false;
+	}
+
+	/**
+	 * Scans a directory tree and waits until it is done.
+	 *
+	 * @param root
+	 *            The directory to scan, it is not passed to the filter itself.
+	 * @param filter
+	 *            The filter to test the entries with or <code>null</code> to
+	 *            accept all entries.
+	 * @param maxDepth
+	 *            The number of directory levels to scan, 1 for the entries of the
+	 *            root only, <code>Integer.MAX_VALUE</code> for all levels.
+	 * @param l
+	 *            Receives the accepted entries.
+	 * @return The number of accepted entries.
+	 */
+	public final long scan(Path root, AttributeFilter filter, int maxDepth, FileScanListener l) {
+		cancelled = false;
+		Class<? extends BasicFileAttributes> type = isDos(root.getFileSystem()) ? DosFileAttributes.class
+				: BasicFileAttributes.class;
+		Scan scan = new Scan(filter, maxDepth, l, type);
+		pool.invoke(scan.new DirTask(root, 1));
+		return scan.accepted.get();
+	}
+
+	/**
+	 * Scans a whole directory tree and waits until it is done.
+	 *
+	 * @param root
+	 *            The directory to scan.
+	 * @param filter
+	 *            The filter to test the entries with or <code>null</code> to
+	 *            accept all entries.
+	 * @param l
+	 *            Receives the accepted entries.
+	 * @return The number of accepted entries.
+	 */
+	public final long scan(File root, AttributeFilter filter, FileScanListener l) {
+		return scan(root.toPath(), filter, Integer.MAX_VALUE, l);
+	}
+
+	/**
+	 * Stops the running scan. Directories that are being listed are finished,
+	 * no new directories are listed.
+	 */
+	public final void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Checks whether the last scan was cancelled.
+	 *
+	 * @return true if <code>cancel()</code> was called during the last scan.
+	 */
+	public final boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Stops the threads of this scanner once the running scan is done.
+	 */
+	public final void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Checks whether a path is hidden by its attributes, without further file
+	 * system access. With DOS attributes the hidden flag decides, otherwise a
+	 * name beginning with &quot;.&quot;, like <code>File.isHidden()</code>.
+	 *
+	 * @param path
+	 *            The path to check.
+	 * @param attrs
+	 *            The attributes of the path.
+	 * @return true if the path is hidden.
+	 */
+	public final static boolean isHidden(Path path, BasicFileAttributes attrs) {
+		if (attrs instanceof DosFileAttributes) {
+			return ((DosFileAttributes) attrs).isHidden();
+		}
+		Path name = path.getFileName();
+		return name != null && name.toString().startsWith(".");
+	}
+
+	/**
+	 * Checks whether the DOS attributes are the native attributes of a file
+	 * system. Linux offers a DOS view too, but emulates it by extended attributes.
+	 */
+	final static boolean isDos(FileSystem fs) {
+		return fs.supportedFileAttributeViews().contains("dos")
+				&& !fs.supportedFileAttributeViews().contains("posix");
+	}
+
+	/**
+	 * The state of one scan shared by its tasks.
+	 */
+	private final class Scan {
+		private final AttributeFilter filter;
+		private final int maxDepth;
+		private final FileScanListener l;
+		private final Class<? extends BasicFileAttributes> type;
+		private final AtomicLong accepted;
+
+		private Scan(AttributeFilter filter, int maxDepth, FileScanListener l,
+				Class<? extends BasicFileAttributes> type) {
+			this.filter = filter;
+			this.maxDepth = maxDepth;
+			this.l = l;
+			this.type = type;
+			accepted = new AtomicLong();
+		}
+
+		@SuppressWarnings("serial")
+		private final class DirTask extends RecursiveAction {
+			private final Path dir;
+			private final int depth;
+
+			private DirTask(Path dir, int depth) {
+				this.dir = dir;
+				this.depth = depth;
+			}
+
+			@Override
+			protected void compute() {
+				if (cancelled) {
+					return;
+				}
+				List<DirTask> subTasks = new ArrayList<DirTask>();
+				BasicFileAttributes attrs;
+				boolean descend;
+				try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+					for (Path p : ds) {
+						try {
+							attrs = Files.readAttributes(p, type, LinkOption.NOFOLLOW_LINKS);
+						} catch (IOException e) {
+							l.failed(p, e);
+							continue;
+						}
+						descend = attrs.isDirectory();
+						if (attrs.isSymbolicLink()) {
+							try {
+								attrs = Files.readAttributes(p, type);
+							} catch (IOException e) {
+								// broken link, keep the attributes of the link
+							}
+						}
+						if (filter == null || filter.accept(p, attrs)) {
+							accepted.incrementAndGet();
+							l.accepted(p, attrs);
+						}
+						if (descend && depth < maxDepth) {
+							subTasks.add(new DirTask(p, depth + 1));
+						}
+					}
+				} catch (IOException e) {
+					l.failed(dir, e);
+				} catch (DirectoryIteratorException e) {
+					l.failed(dir, e.getCause());
+				}
+				invokeAll(subTasks);
+			}
+		}
+	}
+}
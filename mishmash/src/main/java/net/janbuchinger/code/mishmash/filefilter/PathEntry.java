@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.filefilter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+
+/**
+ * <code>PathEntry</code> is a path being tested by a <code>PathFilter</code>.
+ * The name and the attributes are only computed when a filter asks for them and
+ * then shared by all filters of a composition, so the attributes are read at
+ * most once per entry.
+ * <p>
+ * <code>PathEntry</code> is not thread safe.
+ *
+ * @author Jan Buchinger
+ *
+ * @see PathFilter
+ */
+public final class PathEntry {
+	private final Path path;
+	private String name;
+	private BasicFileAttributes attrs;
+
+	/**
+	 * Constructs a new <code>PathEntry</code> whose attributes are read on
+	 * demand.
+	 *
+	 * @param path
+	 *            The path of the entry.
+	 */
+	public PathEntry(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * Constructs a new <code>PathEntry</code> with already read attributes.
+	 *
+	 * @param path
+	 *            The path of the entry.
+	 * @param attrs
+	 *            The attributes of the path.
+	 */
+	public PathEntry(Path path, BasicFileAttributes attrs) {
+		this.path = path;
+		this.attrs = attrs;
+	}
+
+	/**
+	 * Gets the path.
+	 *
+	 * @return The path of the entry.
+	 */
+	public final Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Gets the file name without accessing the file system.
+	 *
+	 * @return The last element of the path or an empty String for a root.
+	 */
+	public final String getName() {
+		if (name == null) {
+			Path p = path.getFileName();
+			name = p == null ? "" : p.toString();
+		}
+		return name;
+	}
+
+	/**
+	 * Gets the attributes, following symbolic links. They are read on the first
+	 * call. On file systems with native DOS attributes these are read. A link
+	 * whose target cannot be read, like a dangling link, gets the attributes of
+	 * the link itself.
+	 *
+	 * @return The attributes of the path.
+	 * @throws IOException
+	 *             If the attributes cannot be read.
+	 */
+	public final BasicFileAttributes getAttributes() throws IOException {
+		if (attrs == null) {
+			Class<? extends BasicFileAttributes> type = FileScanner.isDos(path.getFileSystem())
+					? DosFileAttributes.class : BasicFileAttributes.class;
+			try {
+				attrs = Files.readAttributes(path, type);
+			} catch (IOException e) {
+				try {
+					attrs = Files.readAttributes(path, type, LinkOption.NOFOLLOW_LINKS);
+				} catch (IOException e2) {
+					throw e;
+				}
+			}
+		}
+		return attrs;
+	}
+
+	/**
+	 * Checks whether the attributes have been read already.
+	 *
+	 * @return true if <code>getAttributes()</code> needs no file system access.
+	 */
+	public final boolean hasAttributes() {
+		return attrs != null;
+	}
+
+	/**
+	 * Checks whether the entry is hidden. Only on file systems with native DOS
+	 * attributes these are read, elsewhere a name beginning with &quot;.&quot;
+	 * is hidden.
+	 *
+	 * @return true if the entry is hidden.
+	 * @throws IOException
+	 *             If the attributes cannot be read.
+	 * @see FileScanner#isHidden(Path, BasicFileAttributes)
+	 */
+	public final boolean isHidden() throws IOException {
+		if (attrs == null && !FileScanner.isDos(path.getFileSystem())) {
+			return getName().startsWith(".");
+		}
+		return FileScanner.isHidden(path, getAttributes());
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.filefilter;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * <code>PathFilter</code> is the <code>Path</code> based counterpart of the
+ * <code>FileFilter</code>s of this package. It can be passed to
+ * <code>Files.newDirectoryStream</code>, so huge directories are filtered while
+ * they are listed instead of being collected in an array first.
+ * <p>
+ * Filters are composed by <code>and</code>, <code>or</code> and
+ * <code>not</code>. All filters of a composition test the same
+ * <code>PathEntry</code>, so the attributes are read at most once per entry and
+ * not at all if the name already decides.
+ *
+ * @author Jan Buchinger
+ *
+ * @see Files#newDirectoryStream(Path, DirectoryStream.Filter)
+ */
+public abstract class PathFilter implements DirectoryStream.Filter<Path>, AttributeFilter {
+
+	/**
+	 * Tests an entry.
+	 *
+	 * @param entry
+	 *            The entry to test.
+	 * @return true if the entry is accepted.
+	 * @throws IOException
+	 *             If the attributes of the entry cannot be read.
+	 */
+	public abstract boolean accept(PathEntry entry) throws IOException;
+
+	/**
+	 * Tests a path while it is listed by a <code>DirectoryStream</code>. Paths
+	 * whose attributes are needed but cannot be read are rejected, an exception
+	 * would end the listing.
+	 */
+	@Override
+	public final boolean accept(Path entry) {
+		try {
+			return accept(new PathEntry(entry));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Tests a path with already read attributes. Paths whose attributes are
+	 * needed but cannot be read are rejected.
+	 */
+	@Override
+	public final boolean accept(Path path, BasicFileAttributes attrs) {
+		try {
+			return accept(new PathEntry(path, attrs));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Composes a filter that accepts entries accepted by this and the other
+	 * filter. The other filter is only asked if this one accepts.
+	 *
+	 * @param other
+	 *            The other filter.
+	 * @return The composed filter.
+	 */
+	public final PathFilter and(final PathFilter other) {
+		final PathFilter self = this;
+		return new PathFilter() {
+			@Override
+			public boolean accept(PathEntry entry) throws IOException {
+				return self.accept(entry) && other.accept(entry);
+			}
+		};
+	}
+
+	/**
+	 * Composes a filter that accepts entries accepted by this or the other filter.
+	 * The other filter is only asked if this one rejects.
+	 *
+	 * @param other
+	 *            The other filter.
+	 * @return The composed filter.
+	 */
+	public final PathFilter or(final PathFilter other) {
+		final PathFilter self = this;
+		return new PathFilter() {
+			@Override
+			public boolean accept(PathEntry entry) throws IOException {
+				return self.accept(entry) || other.accept(entry);
+			}
+		};
+	}
+
+	/**
+	 * Composes a filter that accepts the entries this filter rejects.
+	 *
+	 * @return The negated filter.
+	 */
+	public final PathFilter not() {
+		final PathFilter self = this;
+		return new PathFilter() {
+			@Override
+			public boolean accept(PathEntry entry) throws IOException {
+				return !self.accept(entry);
+			}
+		};
+	}
+
+	/**
+	 * Opens a directory stream that only returns the accepted entries. Entries
+	 * that cannot be read are skipped.
+	 *
+	 * @param dir
+	 *            The directory to list.
+	 * @return The filtered directory stream, to be closed by the caller.
+	 * @throws IOException
+	 *             If the directory cannot be opened.
+	 */
+	public final DirectoryStream<Path> open(Path dir) throws IOException {
+		return Files.newDirectoryStream(dir, this);
+	}
+
+	/**
+	 * Lists a directory and passes the accepted entries with their attributes to
+	 * a listener while listing, using constant memory. The attributes are read
+	 * for accepted entries only, if the filter did not read them.
+	 *
+	 * @param dir
+	 *            The directory to list.
+	 * @param l
+	 *            Receives the accepted entries, on the calling thread.
+	 * @return The number of accepted entries.
+	 */
+	public final long list(Path dir, FileScanListener l) {
+		long n = 0;
+		PathEntry entry;
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+			for (Path p : ds) {
+				entry = new PathEntry(p);
+				try {
+					if (accept(entry)) {
+						l.accepted(p, entry.getAttributes());
+						n++;
+					}
+				} catch (IOException e) {
+					l.failed(p, e);
+				}
+			}
+		} catch (IOException e) {
+			l.failed(dir, e);
+		} catch (DirectoryIteratorException e) {
+			l.failed(dir, e.getCause());
+		}
+		return n;
+	}
+
+	/**
+	 * Creates a filter that accepts all entries.
+	 *
+	 * @return The filter.
+	 */
+	public final static PathFilter all() {
+		return new PathFilter() {
+			@Override
+			public boolean accept(PathEntry entry) {
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that matches the file name against a glob pattern like
+	 * <code>&quot;*.{jpg,png}&quot;</code>. No attributes are read.
+	 *
+	 * @param pattern
+	 *            The glob pattern.
+	 * @return The filter.
+	 * @see java.nio.file.FileSystem#getPathMatcher(String)
+	 */
+	public final static PathFilter glob(String pattern) {
+		final PathMatcher pm = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+		return new PathFilter() {
+			@Override
+			public boolean accept(PathEntry entry) {
+				Path name = entry.getPath().getFileName();
+				return name != null && pm.matches(name);
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that matches the file name against extensions, ignoring
+	 * case. No attributes are read, combine with <code>files()</code> to accept
+	 * regular files only.
+	 *
+	 * @param extensions
+	 *            The extensions to accept like &quot;.jpg&quot;.
+	 * @return The filter.
+	 * @see ExtensionFileFilter
+	 */
+	public final static PathFilter extensions(String... extensions) {
+		final ExtensionFileFilter eff = new ExtensionFileFilter(extensions);
+		return new PathFilter() {
+			@Override
+			public boolean accept(PathEntry entry) {
+				return eff.matches(entry.getName());
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that accepts directories.
+	 *
+	 * @return The filter.
+	 */
+	public final static PathFilter directories() {
+		return new PathFilter() {
+			@Override
+			public boolean accept(PathEntry entry) throws IOException {
+				return entry.getAttributes().isDirectory();
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that accepts regular files.
+	 *
+	 * @return The filter.
+	 */
+	public final static PathFilter files() {
+		return new PathFilter() {
+			@Override
+			public boolean accept(PathEntry entry) throws IOException {
+				return entry.getAttributes().isRegularFile();
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that accepts hidden entries, use <code>not()</code> to
+	 * reject them.
+	 *
+	 * @return The filter.
+	 * @see PathEntry#isHidden()
+	 */
+	public final static PathFilter hidden() {
+		return new PathFilter() {
+			@Override
+			public boolean accept(PathEntry entry) throws IOException {
+				return entry.isHidden();
+			}
+		};
+	}
+
+	/**
+	 * Adapts an <code>AttributeFilter</code> like <code>DirectoryFileFilter</code>
+	 * or <code>ExtensionFileFilter</code>. It reads the attributes if no other
+	 * filter did.
+	 *
+	 * @param filter
+	 *            The filter to adapt.
+	 * @return The filter.
+	 */
+	public final static PathFilter of(final AttributeFilter filter) {
+		if (filter instanceof PathFilter) {
+			return (PathFilter) filter;
+		}
+		return new PathFilter() {
+			@Override
+			public boolean accept(PathEntry entry) throws IOException {
+				return filter.accept(entry.getPath(), entry.getAttributes());
+			}
+		};
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * <code>DecodedImage</code> is the result of <code>ImageDecoder</code>: the
+ * decoded pixels together with the dimension of the source image they were
+ * sampled from.
+ *
+ * @author Jan Buchinger
+ *
+ * @see ImageDecoder
+ */
+public final class DecodedImage {
+	private final BufferedImage image;
+	private final int sourceWidth;
+	private final int sourceHeight;
+	private final Rectangle region;
+	private final int subsampling;
+
+	/**
+	 * Constructs a new <code>DecodedImage</code>.
+	 *
+	 * @param image
+	 *            The decoded pixels.
+	 * @param sourceWidth
+	 *            The width of the whole source image.
+	 * @param sourceHeight
+	 *            The height of the whole source image.
+	 * @param region
+	 *            The region of the source image that was decoded.
+	 * @param subsampling
+	 *            The number of source pixels per decoded pixel in each direction.
+	 */
+	public DecodedImage(BufferedImage image, int sourceWidth, int sourceHeight, Rectangle region,
+			int subsampling) {
+		this.image = image;
+		this.sourceWidth = sourceWidth;
+		this.sourceHeight = sourceHeight;
+		this.region = new Rectangle(region);
+		this.subsampling = subsampling;
+	}
+
+	/**
+	 * Gets the decoded pixels.
+	 *
+	 * @return The decoded image.
+	 */
+	public final BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Gets the width of the whole source image.
+	 *
+	 * @return The source width in pixels.
+	 */
+	public final int getSourceWidth() {
+		return sourceWidth;
+	}
+
+	/**
+	 * Gets the height of the whole source image.
+	 *
+	 * @return The source height in pixels.
+	 */
+	public final int getSourceHeight() {
+		return sourceHeight;
+	}
+
+	/**
+	 * Gets the region of the source image that was decoded.
+	 *
+	 * @return A copy of the region in source pixels.
+	 */
+	public final Rectangle getRegion() {
+		return new Rectangle(region);
+	}
+
+	/**
+	 * Gets the subsampling the image was decoded with.
+	 *
+	 * @return The number of source pixels per decoded pixel in each direction, 1
+	 *         if every pixel was decoded.
+	 */
+	public final int getSubsampling() {
+		return subsampling;
+	}
+}
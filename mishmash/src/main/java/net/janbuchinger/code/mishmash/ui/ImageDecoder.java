@@ -0,0 +1,219 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * <code>ImageDecoder</code> decodes images at the resolution they are displayed
+ * in rather than at their full resolution.
+ * <p>
+ * The <code>ImageReader</code> skips rows and columns while decoding
+ * (subsampling) and can decode a region only, so the full resolution image is
+ * never held in memory. The subsampling is the largest integer that still
+ * yields at least the requested size, the decoded image is less than twice as
+ * large as requested in each direction.
+ *
+ * @author Jan Buchinger
+ *
+ * @see ImageReadParam#setSourceSubsampling(int, int, int, int)
+ * @see ImageReadParam#setSourceRegion(Rectangle)
+ */
+public final class ImageDecoder {
+
+	private ImageDecoder() {}
+
+	/**
+	 * Decodes an image file to fit in a bounding box.
+	 *
+	 * @param f
+	 *            The image file.
+	 * @param maxWidth
+	 *            The width of the bounding box, 0 to decode every pixel.
+	 * @param maxHeight
+	 *            The height of the bounding box, 0 to decode every pixel.
+	 * @return The decoded image.
+	 * @throws IOException
+	 *             If the file cannot be read or its format is not supported.
+	 */
+	public final static DecodedImage read(File f, int maxWidth, int maxHeight) throws IOException {
+		return read(f, null, maxWidth, maxHeight);
+	}
+
+	/**
+	 * Decodes a region of an image file to fit in a bounding box.
+	 *
+	 * @param f
+	 *            The image file.
+	 * @param region
+	 *            The region to decode in source pixels or <code>null</code> for
+	 *            the whole image. It is clipped to the image.
+	 * @param maxWidth
+	 *            The width of the bounding box, 0 to decode every pixel.
+	 * @param maxHeight
+	 *            The height of the bounding box, 0 to decode every pixel.
+	 * @return The decoded image.
+	 * @throws IOException
+	 *             If the file cannot be read, its format is not supported or the
+	 *             region lies outside of the image.
+	 */
+	public final static DecodedImage read(File f, Rectangle region, int maxWidth, int maxHeight)
+			throws IOException {
+		try (ImageInputStream iis = ImageIO.createImageInputStream(f)) {
+			if (iis == null) {
+				throw new IOException("Cannot open " + f);
+			}
+			return read(iis, region, maxWidth, maxHeight);
+		}
+	}
+
+	/**
+	 * Decodes an image from a stream to fit in a bounding box. The stream is not
+	 * closed.
+	 *
+	 * @param in
+	 *            The stream to read the image from.
+	 * @param maxWidth
+	 *            The width of the bounding box, 0 to decode every pixel.
+	 * @param maxHeight
+	 *            The height of the bounding box, 0 to decode every pixel.
+	 * @return The decoded image.
+	 * @throws IOException
+	 *             If the stream cannot be read or its format is not supported.
+	 */
+	public final static DecodedImage read(InputStream in, int maxWidth, int maxHeight) throws IOException {
+		try (ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+			if (iis == null) {
+				throw new IOException("Cannot open stream");
+			}
+			return read(iis, null, maxWidth, maxHeight);
+		}
+	}
+
+	/**
+	 * Decodes the first image of an <code>ImageInputStream</code>. The stream is
+	 * not closed.
+	 *
+	 * @param iis
+	 *            The stream to read the image from.
+	 * @param region
+	 *            The region to decode in source pixels or <code>null</code> for
+	 *            the whole image. It is clipped to the image.
+	 * @param maxWidth
+	 *            The width of the bounding box, 0 to decode every pixel.
+	 * @param maxHeight
+	 *            The height of the bounding box, 0 to decode every pixel.
+	 * @return The decoded image.
+	 * @throws IOException
+	 *             If the stream cannot be read, its format is not supported or
+	 *             the region lies outside of the image.
+	 */
+	public final static DecodedImage read(ImageInputStream iis, Rectangle region, int maxWidth,
+			int maxHeight) throws IOException {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+		if (!readers.hasNext()) {
+			throw new IOException("Unsupported image format");
+		}
+		ImageReader reader = readers.next();
+		try {
+			reader.setInput(iis, true, true);
+			int width = reader.getWidth(0);
+			int height = reader.getHeight(0);
+			Rectangle bounds = new Rectangle(0, 0, width, height);
+			Rectangle r = region == null ? bounds : bounds.intersection(region);
+			if (r.isEmpty()) {
+				throw new IOException("Region " + region + " outside of image " + width + "x" + height);
+			}
+			int sub = subsampling(r.width, r.height, maxWidth, maxHeight);
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(r);
+			param.setSourceSubsampling(sub, sub, 0, 0);
+			BufferedImage image = reader.read(0, param);
+			return new DecodedImage(image, width, height, r, sub);
+		} finally {
+			reader.dispose();
+		}
+	}
+
+	/**
+	 * Computes the subsampling to decode an image with so it still fills a
+	 * bounding box when scaled to fit.
+	 *
+	 * @param width
+	 *            The width of the source image or region.
+	 * @param height
+	 *            The height of the source image or region.
+	 * @param maxWidth
+	 *            The width of the bounding box.
+	 * @param maxHeight
+	 *            The height of the bounding box.
+	 * @return The number of source pixels per decoded pixel, 1 if the image is
+	 *         not larger than the box or the box is empty.
+	 */
+	public final static int subsampling(int width, int height, int maxWidth, int maxHeight) {
+		if (maxWidth <= 0 || maxHeight <= 0) {
+			return 1;
+		}
+		return Math.max(1, Math.max(width / maxWidth, height / maxHeight));
+	}
+
+	/**
+	 * Scales an image down to fit in a bounding box, keeping its aspect ratio.
+	 * The result has a pixel layout that is fast to draw and to copy.
+	 *
+	 * @param image
+	 *            The image to scale.
+	 * @param maxWidth
+	 *            The width of the bounding box.
+	 * @param maxHeight
+	 *            The height of the bounding box.
+	 * @return A scaled copy or the image itself if it fits and has an integer
+	 *         RGB pixel layout already.
+	 */
+	public final static BufferedImage scaleToFit(BufferedImage image, int maxWidth, int maxHeight) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (width > maxWidth || height > maxHeight) {
+			double f = Math.min((double) maxWidth / (double) width, (double) maxHeight / (double) height);
+			width = Math.max(1, (int) (width * f));
+			height = Math.max(1, (int) (height * f));
+		}
+		boolean opaque = image.getTransparency() == Transparency.OPAQUE;
+		int type = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+		if (image.getType() == type && width == image.getWidth() && height == image.getHeight()) {
+			return image;
+		}
+		BufferedImage scaled = new BufferedImage(width, height, type);
+		Graphics2D g2 = scaled.createGraphics();
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2.drawImage(image, 0, 0, width, height, null);
+		g2.dispose();
+		return scaled;
+	}
+}
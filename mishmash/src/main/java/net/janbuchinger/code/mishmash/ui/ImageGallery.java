@@ -0,0 +1,379 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.KeyStroke;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import net.janbuchinger.code.mishmash.filefilter.ExtensionFileFilter;
+
+/**
+ * <code>ImageGallery</code> shows the images of a directory one at a time in
+ * an <code>ImagePanel</code>, navigated by buttons or the arrow keys.
+ * <p>
+ * The images around the current one are decoded in advance on background
+ * threads into a <code>ThumbnailCache</code>, at the size of the panel, so
+ * going to the next or previous image displays it from memory. When the
+ * current image changes, queued decodes of images that moved out of reach are
+ * cancelled and the current image is decoded first.
+ *
+ * @author Jan Buchinger
+ *
+ * @see ThumbnailCache
+ */
+@SuppressWarnings("serial")
+public class ImageGallery extends JPanel implements ActionListener {
+	private final static int RESIZE_DELAY = 300;
+
+	private final static ThreadFactory THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "ImageGallery");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+	/**
+	 * Decodes the images to display, so they never wait behind prefetching.
+	 */
+	private final static ExecutorService DISPLAY = Executors.newSingleThreadExecutor(THREADS);
+	private final static ExecutorService PREFETCH = Executors.newFixedThreadPool(2, THREADS);
+
+	private final ImagePanel imagePanel;
+	private final JButton btPrevious;
+	private final JButton btNext;
+	private final JLabel lbPosition;
+	private final Timer resizeTimer;
+
+	private final ThumbnailCache cache;
+	private final int prefetch;
+	private final ExtensionFileFilter filter;
+	private final HashMap<File, Future<?>> pending;
+
+	private File[] files;
+	private volatile int index;
+
+	/**
+	 * Constructs a new <code>ImageGallery</code> that decodes the two images
+	 * before and after the current one in advance, into the shared
+	 * <code>ThumbnailCache</code>.
+	 */
+	public ImageGallery() {
+		this(2, ThumbnailCache.getShared());
+	}
+
+	/**
+	 * Constructs a new <code>ImageGallery</code>.
+	 *
+	 * @param prefetch
+	 *            The number of images before and after the current one to decode
+	 *            in advance.
+	 * @param cache
+	 *            The cache to hold the decoded images. It should be large enough
+	 *            for <code>2 * prefetch + 1</code> images of the panel size.
+	 */
+	public ImageGallery(int prefetch, ThumbnailCache cache) {
+		super(new BorderLayout());
+		this.prefetch = prefetch;
+		this.cache = cache;
+		String[] suffixes = ImageIO.getReaderFileSuffixes();
+		String[] extensions = new String[suffixes.length];
+		for (int i = 0; i < suffixes.length; i++) {
+			extensions[i] = "." + suffixes[i];
+		}
+		filter = new ExtensionFileFilter(extensions, false);
+		pending = new HashMap<File, Future<?>>();
+		files = new File[0];
+		index = -1;
+
+		imagePanel = new ImagePanel();
+		imagePanel.addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				resizeTimer.restart();
+			}
+		});
+		resizeTimer = new Timer(RESIZE_DELAY, this);
+		resizeTimer.setRepeats(false);
+
+		btPrevious = new JButton("<");
+		btPrevious.setToolTipText("Vorheriges Bild");
+		btPrevious.addActionListener(this);
+		btNext = new JButton(">");
+		btNext.setToolTipText("Nächstes Bild");
+		btNext.addActionListener(this);
+		lbPosition = new JLabel(" ", SwingConstants.CENTER);
+
+		JPanel pnNavigation = new JPanel(new BorderLayout());
+		pnNavigation.add(btPrevious, BorderLayout.WEST);
+		pnNavigation.add(lbPosition, BorderLayout.CENTER);
+		pnNavigation.add(btNext, BorderLayout.EAST);
+		add(imagePanel, BorderLayout.CENTER);
+		add(pnNavigation, BorderLayout.SOUTH);
+
+		registerKeyboardAction(this, "previous", KeyStroke.getKeyStroke(KeyEvent.VK_LEFT, 0),
+				JComponent.WHEN_IN_FOCUSED_WINDOW);
+		registerKeyboardAction(this, "next", KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT, 0),
+				JComponent.WHEN_IN_FOCUSED_WINDOW);
+		updateNavigation();
+	}
+
+	/**
+	 * Shows the images of a directory, sorted by name. All formats ImageIO can
+	 * read are included, hidden files are not.
+	 *
+	 * @param dir
+	 *            The directory to show.
+	 */
+	public final void setDirectory(File dir) {
+		File[] list = dir.listFiles(filter);
+		if (list == null) {
+			list = new File[0];
+		}
+		Arrays.sort(list);
+		setFiles(list, 0);
+	}
+
+	/**
+	 * Shows a list of image files.
+	 *
+	 * @param files
+	 *            The images to show.
+	 * @param index
+	 *            The index of the image to show first.
+	 */
+	public final void setFiles(File[] files, int index) {
+		this.files = files.clone();
+		this.index = -1;
+		if (files.length > 0) {
+			show(Math.max(0, Math.min(index, files.length - 1)));
+		} else {
+			cancelPending(-1);
+			imagePanel.setImage((BufferedImage) null);
+			updateNavigation();
+		}
+	}
+
+	/**
+	 * Shows the image at an index.
+	 *
+	 * @param index
+	 *            The index of the image in the list.
+	 */
+	public final void show(int index) {
+		if (index < 0 || index >= files.length) {
+			return;
+		}
+		this.index = index;
+		updateNavigation();
+		int w = imagePanel.getWidth();
+		int h = imagePanel.getHeight();
+		if (w <= 0 || h <= 0) {
+			// shown once the panel is laid out
+			return;
+		}
+		BufferedImage image = cache.getIfPresent(files[index], w, h);
+		if (image != null) {
+			imagePanel.setImage(image);
+		}
+		cancelPending(index);
+		if (image == null) {
+			submit(index, w, h, true);
+		}
+		for (int i = 1; i <= prefetch; i++) {
+			submit(index + i, w, h, false);
+			submit(index - i, w, h, false);
+		}
+	}
+
+	/**
+	 * Shows the next image, if there is one.
+	 */
+	public final void next() {
+		show(index + 1);
+	}
+
+	/**
+	 * Shows the previous image, if there is one.
+	 */
+	public final void previous() {
+		show(index - 1);
+	}
+
+	/**
+	 * Gets the index of the current image.
+	 *
+	 * @return The index of the current image or -1 if there is none.
+	 */
+	public final int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Gets the images of the gallery.
+	 *
+	 * @return A copy of the list of images.
+	 */
+	public final File[] getFiles() {
+		return files.clone();
+	}
+
+	/**
+	 * Gets the current image file.
+	 *
+	 * @return The current image file or <code>null</code> if there is none.
+	 */
+	public final File getFile() {
+		return index < 0 ? null : files[index];
+	}
+
+	/**
+	 * Gets the panel the images are displayed in.
+	 *
+	 * @return The <code>ImagePanel</code> of this gallery.
+	 */
+	public final ImagePanel getImagePanel() {
+		return imagePanel;
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		if (e.getSource() == btNext || "next".equals(e.getActionCommand())) {
+			next();
+		} else if (e.getSource() == btPrevious || "previous".equals(e.getActionCommand())) {
+			previous();
+		} else if (e.getSource() == resizeTimer) {
+			// the queued decodes are for the previous size
+			cancelPending(-1);
+			show(index);
+		}
+	}
+
+	/**
+	 * Cancels the decodes that are done or that are not within reach of an
+	 * index anymore. Decodes already running are finished, so their image is
+	 * cached.
+	 */
+	private final void cancelPending(int index) {
+		Iterator<Map.Entry<File, Future<?>>> it = pending.entrySet().iterator();
+		Map.Entry<File, Future<?>> e;
+		int i;
+		while (it.hasNext()) {
+			e = it.next();
+			i = index < 0 ? -1 : indexOf(e.getKey(), index);
+			if (e.getValue().isDone() || i < 0 || Math.abs(i - index) > prefetch) {
+				e.getValue().cancel(false);
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Finds a file near an index, returns -1 if it is out of reach.
+	 */
+	private final int indexOf(File f, int index) {
+		for (int i = Math.max(0, index - prefetch); i <= Math.min(files.length - 1, index + prefetch); i++) {
+			if (files[i].equals(f)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes an image into the cache unless it is cached or queued already.
+	 * The current image is displayed when it is decoded, if it is still current.
+	 */
+	private final void submit(final int i, final int w, final int h, final boolean display) {
+		if (i < 0 || i >= files.length) {
+			return;
+		}
+		final File f = files[i];
+		Future<?> queued = pending.get(f);
+		if (queued != null && !queued.isDone()) {
+			if (display) {
+				// a running decode is shared by the cache, a queued one is not needed
+				queued.cancel(false);
+			} else {
+				return;
+			}
+		}
+		if (!display && cache.contains(f, w, h)) {
+			return;
+		}
+		pending.put(f, (display ? DISPLAY : PREFETCH).submit(new Runnable() {
+			@Override
+			public void run() {
+				if (display && index != i) {
+					return;
+				}
+				BufferedImage image = null;
+				try {
+					image = cache.get(f, w, h);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				if (display) {
+					final BufferedImage result = image;
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							if (index == i && i < files.length && files[i] == f && imagePanel.getWidth() == w
+									&& imagePanel.getHeight() == h) {
+								imagePanel.setImage(result);
+							}
+						}
+					});
+				}
+			}
+		}));
+	}
+
+	private final void updateNavigation() {
+		btPrevious.setEnabled(index > 0);
+		btNext.setEnabled(index >= 0 && index < files.length - 1);
+		if (index < 0) {
+			lbPosition.setText("Keine Bilder");
+		} else {
+			lbPosition.setText((index + 1) + " / " + files.length + "  " + files[index].getName());
+		}
+	}
+}
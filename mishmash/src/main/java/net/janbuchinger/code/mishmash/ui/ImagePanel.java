@@ -16,61 +16,169 @@
 package net.janbuchinger.code.mishmash.ui;
 
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
-import javax.imageio.ImageIO;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
  * An extension of <code>JPanel</code> that displays an image.
+ * <p>
+ * Images are decoded by <code>ImageDecoder</code> with a subsampling matching
+ * the panel size, so the memory needed per image is proportional to the panel
+ * size, not to the size of the image file. <code>loadImage</code> decodes on a
+ * background thread and displays the image when it is ready.
+ * <p>
+ * The image is scaled once into a compatible image of the display size, which
+ * is only recomputed when the panel is resized. After resizing, an image read
+ * from a file is decoded again if the subsampling does not match the new size.
  * 
  * @author Jan Buchinger
  * 
+ * @see ImageDecoder
  */
 @SuppressWarnings("serial")
 public class ImagePanel extends JPanel {
+	private final static int REDECODE_DELAY = 300;
+
+	private final static ExecutorService DECODER = Executors.newFixedThreadPool(2, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "ImagePanel");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
 	private BufferedImage image;
+	private BufferedImage scaled;
+	private File source;
+	private Rectangle region;
+	private int subsampling;
+	private int sourceWidth, sourceHeight;
 	private int x, y, width, height;
 	private double scale;
+	private volatile int generation;
+	private boolean loading;
+	private final Timer redecode;
 
 	/**
 	 * Constructs a new <code>ImagePanel</code>.
 	 */
 	public ImagePanel() {
 		image = null;
+		scaled = null;
+		source = null;
+		region = null;
+		subsampling = 1;
+		sourceWidth = sourceHeight = 0;
 		x = y = width = height = 0;
 		scale = 0.0;
+		generation = 0;
+		loading = false;
+		redecode = new Timer(REDECODE_DELAY, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (source != null && !loading) {
+					decode();
+				}
+			}
+		});
+		redecode.setRepeats(false);
+		addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				resized();
+			}
+		});
 	}
 
 	@Override
 	protected void paintComponent(Graphics g) {
-		if (image != null) {
-			g.drawImage(image, x, y, width, height, null);
+		super.paintComponent(g);
+		if (image != null && width > 0 && height > 0) {
+			if (scaled == null) {
+				scaled = prescale();
+			}
+			if (scaled != null) {
+				g.drawImage(scaled, x, y, null);
+			} else {
+				g.drawImage(image, x, y, width, height, null);
+			}
 		}
 	}
 
+	/**
+	 * Scales the image to the display size into an image that is compatible
+	 * with the screen, so painting only copies pixels. Returns null if the panel
+	 * is not displayable.
+	 */
+	private final BufferedImage prescale() {
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		if (gc == null) {
+			return null;
+		}
+		BufferedImage bi = gc.createCompatibleImage(width, height, image.getColorModel().getTransparency());
+		Graphics2D g2 = bi.createGraphics();
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2.drawImage(image, 0, 0, width, height, null);
+		g2.dispose();
+		return bi;
+	}
+
 	/**
 	 * Sets the image to display. <code>setImage</code> should be called after
 	 * the <code>ImagePanel</code> is made visible.
 	 * <p>
 	 * The image will be displayed scaled to the panel dimension and centered on
-	 * the panel.
+	 * the panel. The image is decoded on the calling thread, use
+	 * <code>loadImage</code> to decode in the background.
 	 * 
 	 * @param f
 	 *            The image file to display.
 	 */
 	public final void setImage(File f) {
-		try(InputStream is = new FileInputStream(f)){
-			setImage(is);
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+		setImage(f, null);
+	}
+
+	/**
+	 * Sets a region of an image to display. Only the region is decoded.
+	 * <code>setImage</code> should be called after the <code>ImagePanel</code>
+	 * is made visible.
+	 * <p>
+	 * The region will be displayed scaled to the panel dimension and centered on
+	 * the panel.
+	 * 
+	 * @param f
+	 *            The image file to display.
+	 * @param region
+	 *            The region of the image in image pixels or <code>null</code> to
+	 *            display the whole image.
+	 */
+	public final void setImage(File f, Rectangle region) {
+		clear();
+		source = f;
+		this.region = region;
+		try {
+			setImage(ImageDecoder.read(f, region, getWidth(), getHeight()));
 		} catch (IOException e) {
 			e.printStackTrace();
+			source = null;
 		}
 	}
 
@@ -79,49 +187,194 @@ public class ImagePanel extends JPanel {
 	 * the <code>ImagePanel</code> is made visible.
 	 * <p>
 	 * The image will be displayed scaled to the panel dimension and centered on
-	 * the panel.
+	 * the panel. It is not decoded again when the panel is resized.
 	 * 
 	 * @param f
 	 *            The image file to display as <code>InputStream</code>.
 	 */
 	public final void setImage(InputStream f) {
-		image = null;
+		clear();
 		try {
-			image = ImageIO.read(f);
+			setImage(ImageDecoder.read(f, getWidth(), getHeight()));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+	}
 
-		if (image == null)
-			return;
+	/**
+	 * Sets an already decoded image to display, for example from a
+	 * <code>ThumbnailCache</code>. It is not decoded again when the panel is
+	 * resized and <code>getScale()</code> relates to the pixels of this image.
+	 * 
+	 * @param image
+	 *            The image to display or <code>null</code> to display nothing.
+	 */
+	public final void setImage(BufferedImage image) {
+		clear();
+		if (image != null) {
+			setImage(new DecodedImage(image, image.getWidth(), image.getHeight(),
+					new Rectangle(0, 0, image.getWidth(), image.getHeight()), 1));
+		}
+	}
 
+	/**
+	 * Loads an image in the background and displays it when it is decoded. The
+	 * current image stays visible meanwhile. A later call to
+	 * <code>loadImage</code> or <code>setImage</code> supersedes the load. If
+	 * the panel has no size yet, the image is decoded once it is laid out.
+	 * 
+	 * @param f
+	 *            The image file to display.
+	 */
+	public final void loadImage(File f) {
+		loadImage(f, null);
+	}
+
+	/**
+	 * Loads a region of an image in the background and displays it when it is
+	 * decoded.
+	 * 
+	 * @param f
+	 *            The image file to display.
+	 * @param region
+	 *            The region of the image in image pixels or <code>null</code> to
+	 *            load the whole image.
+	 * @see #loadImage(File)
+	 */
+	public final void loadImage(File f, Rectangle region) {
+		generation++;
+		redecode.stop();
+		source = f;
+		this.region = region;
+		loading = false;
+		if (getWidth() > 0 && getHeight() > 0) {
+			decode();
+		} else {
+			image = scaled = null;
+			repaint();
+		}
+	}
+
+	/**
+	 * Decodes the source for the current panel size on the decoder threads.
+	 */
+	private final void decode() {
+		final int gen = ++generation;
+		final File f = source;
+		final Rectangle r = region;
+		final int w = getWidth();
+		final int h = getHeight();
+		loading = true;
+		DECODER.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (gen != generation) {
+					return;
+				}
+				DecodedImage di = null;
+				try {
+					di = ImageDecoder.read(f, r, w, h);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				final DecodedImage result = di;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (gen != generation) {
+							return;
+						}
+						loading = false;
+						if (result != null) {
+							setImage(result);
+							// the panel may have been resized while decoding
+							if (subsampling != ImageDecoder.subsampling(sourceWidth, sourceHeight, getWidth(),
+									getHeight())) {
+								redecode.restart();
+							}
+						} else {
+							source = null;
+							image = scaled = null;
+							repaint();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Removes the current image and supersedes running loads.
+	 */
+	private final void clear() {
+		generation++;
+		redecode.stop();
+		loading = false;
+		source = null;
+		region = null;
+		image = scaled = null;
+		subsampling = 1;
+		repaint();
+	}
+
+	private final void setImage(DecodedImage di) {
+		image = di.getImage();
+		scaled = null;
+		subsampling = di.getSubsampling();
+		sourceWidth = di.getRegion().width;
+		sourceHeight = di.getRegion().height;
+		fit();
+		repaint();
+	}
+
+	private final void resized() {
+		int w = width;
+		int h = height;
+		if (image != null) {
+			fit();
+			if (w != width || h != height) {
+				scaled = null;
+			}
+			if (source != null
+					&& ImageDecoder.subsampling(sourceWidth, sourceHeight, getWidth(), getHeight()) != subsampling) {
+				redecode.restart();
+			}
+		} else if (source != null && !loading && getWidth() > 0 && getHeight() > 0) {
+			decode();
+		}
+		repaint();
+	}
+
+	/**
+	 * Computes the position and size of the image on the panel from the size of
+	 * the source image, not from the size of the decoded image.
+	 */
+	private final void fit() {
 		width = height = x = y = 0;
 		scale = 0.0;
 
-		if (image.getWidth() > getWidth() || image.getHeight() > getHeight()) {
-			double imgRatio = (double) image.getWidth() / (double) image.getHeight();
+		if (sourceWidth > getWidth() || sourceHeight > getHeight()) {
+			double imgRatio = (double) sourceWidth / (double) sourceHeight;
 			double vpRatio = (double) getWidth() / (double) getHeight();
 			if (imgRatio > vpRatio) {
 				width = getWidth();
-				height = (int) ((double) image.getHeight() * ((double) width / (double) image.getWidth()));
+				height = (int) ((double) sourceHeight * ((double) width / (double) sourceWidth));
 				x = 0;
 				y = getHeight() / 2 - height / 2;
 			} else {
 				height = getHeight();
-				width = (int) ((double) image.getWidth() * ((double) height / (double) image.getHeight()));
+				width = (int) ((double) sourceWidth * ((double) height / (double) sourceHeight));
 				x = getWidth() / 2 - width / 2;
 				y = 0;
 			}
-			scale = (double) image.getWidth() / (double) width;
+			scale = (double) sourceWidth / (double) width;
 		} else {
-			width = image.getWidth();
-			height = image.getHeight();
+			width = sourceWidth;
+			height = sourceHeight;
 			x = getWidth() / 2 - width / 2;
 			y = getHeight() / 2 - height / 2;
 			scale = 1;
 		}
-
-		repaint();
 	}
 
 	/**
@@ -0,0 +1,562 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui;
+
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import net.janbuchinger.code.mishmash.PropFx;
+
+/**
+ * <code>ThumbnailCache</code> caches images scaled to fit in a bounding box,
+ * for views that show the same images again and again.
+ * <p>
+ * An entry is identified by the path and the modification time of the file and
+ * by the size of the bounding box, so a changed file is decoded again. The
+ * memory tier keeps the least recently used images up to a total number of
+ * pixel bytes. The optional disk tier stores the images as small JPEG or PNG
+ * files, so they survive an eviction and the end of the program. It is bounded
+ * by a total file size too: when a write exceeds it, the least recently used
+ * files are deleted until the tier is 10% below the bound. Stale previews of
+ * changed files or unused box sizes are removed that way.
+ * <p>
+ * An image that is requested by several threads at once is decoded only once.
+ * The counters of hits, misses and evictions can be read to tune the sizes.
+ * <p>
+ * <code>ThumbnailCache</code> is thread safe.
+ *
+ * @author Jan Buchinger
+ *
+ * @see ImageDecoder
+ */
+public final class ThumbnailCache {
+	/**
+	 * The default size of the disk tier in bytes.
+	 */
+	public final static long DEFAULT_MAX_DISK_BYTES = 256L * 1024 * 1024;
+
+	private static ThumbnailCache shared;
+
+	private final long maxBytes;
+	private final File diskDirectory;
+	private final long maxDiskBytes;
+	private final Object diskLock;
+	private long diskBytes;
+	private final LinkedHashMap<Key, BufferedImage> memory;
+	private final ConcurrentHashMap<Key, FutureTask<BufferedImage>> loading;
+	private long bytes;
+
+	private final AtomicLong hits;
+	private final AtomicLong diskHits;
+	private final AtomicLong misses;
+	private final AtomicLong evictions;
+
+	/**
+	 * Gets the <code>ThumbnailCache</code> shared by the library components. It
+	 * keeps up to 64 MB of pixels in memory and has no disk tier.
+	 *
+	 * @return The shared <code>ThumbnailCache</code>.
+	 */
+	public final static synchronized ThumbnailCache getShared() {
+		if (shared == null) {
+			shared = new ThumbnailCache(64L * 1024 * 1024, null);
+		}
+		return shared;
+	}
+
+	/**
+	 * Gets the suggested directory of a disk tier, the directory
+	 * &quot;mishmash-thumbnails&quot; in the temporary directory.
+	 *
+	 * @return The suggested disk tier directory.
+	 * @see PropFx#javaIoTmpdir()
+	 */
+	public final static File getDefaultDiskDirectory() {
+		return new File(PropFx.javaIoTmpdir(), "mishmash-thumbnails");
+	}
+
+	/**
+	 * Constructs a new <code>ThumbnailCache</code> with a disk tier of up to
+	 * <code>DEFAULT_MAX_DISK_BYTES</code>.
+	 *
+	 * @param maxBytes
+	 *            The number of pixel bytes kept in memory.
+	 * @param diskDirectory
+	 *            The directory of the disk tier or <code>null</code> for a memory
+	 *            cache only. It is created if it does not exist.
+	 */
+	public ThumbnailCache(long maxBytes, File diskDirectory) {
+		this(maxBytes, diskDirectory, DEFAULT_MAX_DISK_BYTES);
+	}
+
+	/**
+	 * Constructs a new <code>ThumbnailCache</code>. An existing disk tier that
+	 * is larger than <code>maxDiskBytes</code> is pruned right away.
+	 *
+	 * @param maxBytes
+	 *            The number of pixel bytes kept in memory.
+	 * @param diskDirectory
+	 *            The directory of the disk tier or <code>null</code> for a memory
+	 *            cache only. It is created if it does not exist.
+	 * @param maxDiskBytes
+	 *            The total size of the files of the disk tier.
+	 */
+	public ThumbnailCache(long maxBytes, File diskDirectory, long maxDiskBytes) {
+		this.maxBytes = maxBytes;
+		this.maxDiskBytes = maxDiskBytes;
+		diskLock = new Object();
+		if (diskDirectory != null && !diskDirectory.isDirectory() && !diskDirectory.mkdirs()) {
+			System.err.println("Cannot create thumbnail directory " + diskDirectory);
+			diskDirectory = null;
+		}
+		this.diskDirectory = diskDirectory;
+		memory = new LinkedHashMap<Key, BufferedImage>(64, 0.75f, true);
+		loading = new ConcurrentHashMap<Key, FutureTask<BufferedImage>>();
+		bytes = 0;
+		hits = new AtomicLong();
+		diskHits = new AtomicLong();
+		misses = new AtomicLong();
+		evictions = new AtomicLong();
+		if (diskDirectory != null) {
+			synchronized (diskLock) {
+				pruneDisk();
+			}
+		}
+	}
+
+	/**
+	 * Gets an image scaled to fit in a bounding box, from the cache or by
+	 * decoding it on the calling thread.
+	 *
+	 * @param f
+	 *            The image file.
+	 * @param maxWidth
+	 *            The width of the bounding box.
+	 * @param maxHeight
+	 *            The height of the bounding box.
+	 * @return The scaled image, it must not be modified.
+	 * @throws IOException
+	 *             If the image cannot be decoded.
+	 */
+	public final BufferedImage get(final File f, final int maxWidth, final int maxHeight)
+			throws IOException {
+		final Key key = new Key(f, maxWidth, maxHeight);
+		BufferedImage image = fromMemory(key);
+		if (image != null) {
+			hits.incrementAndGet();
+			return image;
+		}
+		FutureTask<BufferedImage> task = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+			@Override
+			public BufferedImage call() throws IOException {
+				return load(key, f, maxWidth, maxHeight);
+			}
+		});
+		FutureTask<BufferedImage> running = loading.putIfAbsent(key, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				loading.remove(key, task);
+			}
+		}
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading " + f, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Gets an image from the memory tier without decoding it.
+	 *
+	 * @param f
+	 *            The image file.
+	 * @param maxWidth
+	 *            The width of the bounding box.
+	 * @param maxHeight
+	 *            The height of the bounding box.
+	 * @return The scaled image or <code>null</code> if it is not in memory.
+	 */
+	public final BufferedImage getIfPresent(File f, int maxWidth, int maxHeight) {
+		BufferedImage image = fromMemory(new Key(f, maxWidth, maxHeight));
+		if (image != null) {
+			hits.incrementAndGet();
+		}
+		return image;
+	}
+
+	/**
+	 * Checks whether an image is in the memory tier. The hit counter is not
+	 * changed.
+	 *
+	 * @param f
+	 *            The image file.
+	 * @param maxWidth
+	 *            The width of the bounding box.
+	 * @param maxHeight
+	 *            The height of the bounding box.
+	 * @return true if <code>get</code> would not decode the image.
+	 */
+	public final synchronized boolean contains(File f, int maxWidth, int maxHeight) {
+		return memory.containsKey(new Key(f, maxWidth, maxHeight));
+	}
+
+	/**
+	 * Removes all images of a file in all sizes from the memory tier.
+	 *
+	 * @param f
+	 *            The image file.
+	 */
+	public final synchronized void invalidate(File f) {
+		String path = f.getAbsolutePath();
+		Iterator<Map.Entry<Key, BufferedImage>> it = memory.entrySet().iterator();
+		Map.Entry<Key, BufferedImage> e;
+		while (it.hasNext()) {
+			e = it.next();
+			if (e.getKey().path.equals(path)) {
+				bytes -= bytes(e.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes all images from the memory tier.
+	 */
+	public final synchronized void clear() {
+		memory.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Deletes all files of the disk tier.
+	 */
+	public final void clearDisk() {
+		if (diskDirectory == null) {
+			return;
+		}
+		synchronized (diskLock) {
+			File[] files = diskDirectory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					if (!file.delete()) {
+						System.err.println("Cannot delete " + file);
+					}
+				}
+			}
+			diskBytes = 0;
+		}
+	}
+
+	/**
+	 * Gets the total size of the files of the disk tier, as far as this cache
+	 * wrote or found them.
+	 *
+	 * @return The size of the disk tier in bytes.
+	 */
+	public final long getDiskByteCount() {
+		synchronized (diskLock) {
+			return diskBytes;
+		}
+	}
+
+	/**
+	 * Gets the number of requests served from the memory tier.
+	 *
+	 * @return The number of memory hits.
+	 */
+	public final long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of requests served from the disk tier.
+	 *
+	 * @return The number of disk hits.
+	 */
+	public final long getDiskHits() {
+		return diskHits.get();
+	}
+
+	/**
+	 * Gets the number of requests that needed to decode the image file.
+	 *
+	 * @return The number of misses.
+	 */
+	public final long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the number of images removed from the memory tier to make room for
+	 * others.
+	 *
+	 * @return The number of evictions.
+	 */
+	public final long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Resets the hit, miss and eviction counters.
+	 */
+	public final void resetStatistics() {
+		hits.set(0);
+		diskHits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	/**
+	 * Gets the number of pixel bytes in the memory tier.
+	 *
+	 * @return The size of the memory tier in bytes.
+	 */
+	public final synchronized long getByteCount() {
+		return bytes;
+	}
+
+	/**
+	 * Gets the number of images in the memory tier.
+	 *
+	 * @return The number of images in memory.
+	 */
+	public final synchronized int size() {
+		return memory.size();
+	}
+
+	private final synchronized BufferedImage fromMemory(Key key) {
+		return memory.get(key);
+	}
+
+	private final synchronized void toMemory(Key key, BufferedImage image) {
+		long b = bytes(image);
+		if (b > maxBytes) {
+			return;
+		}
+		BufferedImage old = memory.put(key, image);
+		if (old != null) {
+			bytes -= bytes(old);
+		}
+		bytes += b;
+		Iterator<BufferedImage> it = memory.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= bytes(it.next());
+			it.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Loads an image from the disk tier or decodes and scales it, then stores
+	 * it in the tiers.
+	 */
+	private final BufferedImage load(Key key, File f, int maxWidth, int maxHeight) throws IOException {
+		BufferedImage image = fromMemory(key);
+		if (image != null) {
+			// loaded by another thread meanwhile
+			hits.incrementAndGet();
+			return image;
+		}
+		File diskFile = diskFile(key);
+		if (diskFile != null && diskFile.isFile()) {
+			try {
+				image = ImageIO.read(diskFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (image != null) {
+				diskHits.incrementAndGet();
+				// the modification time orders the files for pruning
+				diskFile.setLastModified(System.currentTimeMillis());
+				image = ImageDecoder.scaleToFit(image, maxWidth, maxHeight);
+				toMemory(key, image);
+				return image;
+			}
+		}
+		misses.incrementAndGet();
+		image = ImageDecoder.read(f, maxWidth, maxHeight).getImage();
+		image = ImageDecoder.scaleToFit(image, maxWidth, maxHeight);
+		toMemory(key, image);
+		if (diskFile != null) {
+			toDisk(diskFile, image);
+		}
+		return image;
+	}
+
+	/**
+	 * Writes an image to a temporary file that is then renamed, so other threads
+	 * and programs never read a partial file.
+	 */
+	private final void toDisk(File diskFile, BufferedImage image) {
+		String format = image.getTransparency() == Transparency.OPAQUE ? "jpg" : "png";
+		File tmp = null;
+		try {
+			// unique in the directory, which may be shared by other caches
+			tmp = File.createTempFile(diskFile.getName(), ".tmp", diskFile.getParentFile());
+			if (ImageIO.write(image, format, tmp)) {
+				synchronized (diskLock) {
+					// a replaced file is counted once
+					long old = diskFile.length();
+					Files.move(tmp.toPath(), diskFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+					diskBytes += diskFile.length() - old;
+					if (diskBytes > maxDiskBytes) {
+						pruneDisk();
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (tmp != null && tmp.exists() && !tmp.delete()) {
+				System.err.println("Cannot delete " + tmp);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files of the disk tier until it is 10%
+	 * below its bound, so the directory is not listed again on every write.
+	 * Called with the disk lock held.
+	 */
+	private final void pruneDisk() {
+		File[] files = diskDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		final long[] modified = new long[files.length];
+		long[] length = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		long total = 0;
+		for (int i = 0; i < files.length; i++) {
+			modified[i] = files[i].lastModified();
+			length[i] = files[i].length();
+			total += length[i];
+			order[i] = i;
+		}
+		diskBytes = total;
+		if (total <= maxDiskBytes) {
+			return;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(modified[a], modified[b]);
+			}
+		});
+		long target = maxDiskBytes - maxDiskBytes / 10;
+		for (int i = 0; i < order.length && diskBytes > target; i++) {
+			if (files[order[i]].delete()) {
+				diskBytes -= length[order[i]];
+			}
+		}
+	}
+
+	/**
+	 * The name of a disk tier file is a digest of the key, ImageIO detects the
+	 * format by the content.
+	 */
+	private final File diskFile(Key key) {
+		if (diskDirectory == null) {
+			return null;
+		}
+		String id = key.path + "\n" + key.lastModified + "\n" + key.width + "x" + key.height;
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] digest = md.digest(id.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(b & 0xf, 16));
+			}
+			return new File(diskDirectory, sb.toString());
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Counts the bytes of the pixel storage, an RGB pixel of 24 bits is stored
+	 * in an int.
+	 */
+	private final static long bytes(BufferedImage image) {
+		DataBuffer db = image.getRaster().getDataBuffer();
+		return (long) db.getSize() * db.getNumBanks() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+	}
+
+	/**
+	 * Identifies a file in one version and a bounding box.
+	 */
+	private final static class Key {
+		private final String path;
+		private final long lastModified;
+		private final int width;
+		private final int height;
+
+		private Key(File f, int width, int height) {
+			path = f.getAbsolutePath();
+			lastModified = f.lastModified();
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((path.hashCode() * 31 + (int) (lastModified ^ (lastModified >>> 32))) * 31 + width) * 31
+					+ height;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) obj;
+			return k.lastModified == lastModified && k.width == width && k.height == height
+					&& k.path.equals(path);
+		}
+	}
+}
@@ -0,0 +1,587 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.JComponent;
+import javax.swing.JScrollPane;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+/**
+ * <code>TiledImageViewer</code> displays very large images at any zoom level,
+ * to be placed in a <code>JScrollPane</code>.
+ * <p>
+ * The image is divided into square tiles that are decoded on demand with
+ * <code>ImageReader.setSourceRegion</code>, only for the visible part of the
+ * image. Below 100% the tiles are decoded with a subsampling of the next lower
+ * power of two, so each zoom level decodes about as many pixels as are
+ * displayed. Decoded tiles are kept in a cache of least recently used tiles of
+ * a fixed count, so the memory does not depend on the size of the image. While
+ * a tile is being decoded, a cached tile of a lower resolution is scaled up in
+ * its place.
+ * <p>
+ * The image is panned by dragging it and zoomed by the mouse wheel while the
+ * control key is held down.
+ *
+ * @author Jan Buchinger
+ *
+ * @see ImagePanel
+ */
+@SuppressWarnings("serial")
+public class TiledImageViewer extends JComponent implements Scrollable {
+	private final static int TILE = 256;
+	private final static double MIN_ZOOM = 1.0 / 64.0;
+	private final static double MAX_ZOOM = 16.0;
+	private final static double ZOOM_STEP = 1.25;
+	/**
+	 * The number of coarser levels searched for a substitute of a missing tile.
+	 */
+	private final static int FALLBACK_LEVELS = 4;
+
+	/**
+	 * Reads the tiles of all viewers, an <code>ImageReader</code> must not be
+	 * used by several threads at once.
+	 */
+	private final static ExecutorService READER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "TiledImageViewer");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final int maxTiles;
+	private final LinkedHashMap<Tile, BufferedImage> tiles;
+	private final Set<Tile> pending;
+	private volatile Set<Tile> wanted;
+
+	private ImageReader reader;
+	private ImageInputStream iis;
+	private int imageWidth, imageHeight;
+	private double zoom;
+	private volatile int generation;
+
+	/**
+	 * Constructs a new <code>TiledImageViewer</code> that caches 256 tiles, that
+	 * is 64 MB of pixels at most.
+	 */
+	public TiledImageViewer() {
+		this(256);
+	}
+
+	/**
+	 * Constructs a new <code>TiledImageViewer</code>.
+	 *
+	 * @param maxTiles
+	 *            The number of tiles of 256x256 pixels to cache. It must be
+	 *            larger than the number of tiles visible at once, which is about
+	 *            the number of screen pixels of the viewer / 32768.
+	 */
+	public TiledImageViewer(int maxTiles) {
+		this.maxTiles = maxTiles;
+		tiles = new LinkedHashMap<Tile, BufferedImage>(64, 0.75f, true);
+		pending = Collections.newSetFromMap(new ConcurrentHashMap<Tile, Boolean>());
+		wanted = Collections.emptySet();
+		reader = null;
+		iis = null;
+		imageWidth = imageHeight = 0;
+		zoom = 1.0;
+		generation = 0;
+		setBackground(Color.GRAY);
+		setOpaque(true);
+
+		MouseAdapter ma = new MouseAdapter() {
+			private Point last;
+
+			@Override
+			public void mousePressed(MouseEvent e) {
+				last = e.getLocationOnScreen();
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				if (last != null) {
+					Point p = e.getLocationOnScreen();
+					Rectangle r = getVisibleRect();
+					r.translate(last.x - p.x, last.y - p.y);
+					scrollRectToVisible(r);
+					last = p;
+				}
+			}
+
+			@Override
+			public void mouseReleased(MouseEvent e) {
+				last = null;
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				if (e.isControlDown()) {
+					double factor = Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation());
+					setZoom(zoom * factor, e.getPoint());
+				} else {
+					// scroll as if this component did not listen to the wheel
+					JScrollPane sp = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class,
+							TiledImageViewer.this);
+					if (sp != null) {
+						sp.dispatchEvent(SwingUtilities.convertMouseEvent(TiledImageViewer.this, e, sp));
+					}
+				}
+			}
+		};
+		addMouseListener(ma);
+		addMouseMotionListener(ma);
+		addMouseWheelListener(ma);
+	}
+
+	/**
+	 * Sets the image to display. Only the dimension of the image is read on the
+	 * calling thread, the visible tiles are decoded in the background.
+	 *
+	 * @param f
+	 *            The image file to display or <code>null</code> to display
+	 *            nothing.
+	 * @return true if the image can be displayed.
+	 */
+	public final boolean setImage(File f) {
+		close();
+		if (f == null) {
+			return true;
+		}
+		ImageInputStream in = null;
+		try {
+			in = ImageIO.createImageInputStream(f);
+			if (in == null) {
+				throw new IOException("Cannot open " + f);
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				throw new IOException("Unsupported image format " + f);
+			}
+			ImageReader r = readers.next();
+			r.setInput(in, true, true);
+			imageWidth = r.getWidth(0);
+			imageHeight = r.getHeight(0);
+			reader = r;
+			iis = in;
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e1) {
+					e1.printStackTrace();
+				}
+			}
+			imageWidth = imageHeight = 0;
+			return false;
+		} finally {
+			revalidate();
+			repaint();
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the image and releases the reader and the cached tiles.
+	 */
+	public final void close() {
+		generation++;
+		tiles.clear();
+		pending.clear();
+		wanted = Collections.emptySet();
+		imageWidth = imageHeight = 0;
+		if (reader != null) {
+			final ImageReader r = reader;
+			final ImageInputStream in = iis;
+			reader = null;
+			iis = null;
+			// disposed after the queued reads
+			READER.execute(new Runnable() {
+				@Override
+				public void run() {
+					r.dispose();
+					try {
+						in.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+		revalidate();
+		repaint();
+	}
+
+	/**
+	 * Gets the width of the image.
+	 *
+	 * @return The width of the image in image pixels, 0 without image.
+	 */
+	public final int getImageWidth() {
+		return imageWidth;
+	}
+
+	/**
+	 * Gets the height of the image.
+	 *
+	 * @return The height of the image in image pixels, 0 without image.
+	 */
+	public final int getImageHeight() {
+		return imageHeight;
+	}
+
+	/**
+	 * Gets the zoom.
+	 *
+	 * @return The number of screen pixels per image pixel, 1 for 100%.
+	 */
+	public final double getZoom() {
+		return zoom;
+	}
+
+	/**
+	 * Sets the zoom, keeping the center of the visible area in place.
+	 *
+	 * @param zoom
+	 *            The number of screen pixels per image pixel, 1 for 100%.
+	 */
+	public final void setZoom(double zoom) {
+		Rectangle r = getVisibleRect();
+		setZoom(zoom, new Point(r.x + r.width / 2, r.y + r.height / 2));
+	}
+
+	/**
+	 * Sets the zoom, keeping the image pixel at a point in place.
+	 *
+	 * @param zoom
+	 *            The number of screen pixels per image pixel, 1 for 100%.
+	 * @param anchor
+	 *            The point in the coordinates of this component.
+	 */
+	public final void setZoom(double zoom, Point anchor) {
+		zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+		if (zoom == this.zoom) {
+			return;
+		}
+		double sx = (anchor.x - offsetX()) / this.zoom;
+		double sy = (anchor.y - offsetY()) / this.zoom;
+		this.zoom = zoom;
+		Dimension d = getPreferredSize();
+		if (getParent() instanceof JViewport) {
+			JViewport vp = (JViewport) getParent();
+			Point view = vp.getViewPosition();
+			vp.setViewSize(new Dimension(Math.max(d.width, vp.getWidth()), Math.max(d.height, vp.getHeight())));
+			int x = (int) Math.round(sx * zoom) + offsetX() - (anchor.x - view.x);
+			int y = (int) Math.round(sy * zoom) + offsetY() - (anchor.y - view.y);
+			x = Math.max(0, Math.min(x, getWidth() - vp.getWidth()));
+			y = Math.max(0, Math.min(y, getHeight() - vp.getHeight()));
+			vp.setViewPosition(new Point(x, y));
+		}
+		revalidate();
+		repaint();
+	}
+
+	/**
+	 * Zooms in by one step.
+	 */
+	public final void zoomIn() {
+		setZoom(zoom * ZOOM_STEP);
+	}
+
+	/**
+	 * Zooms out by one step.
+	 */
+	public final void zoomOut() {
+		setZoom(zoom / ZOOM_STEP);
+	}
+
+	/**
+	 * Sets the zoom so the whole image fits in the visible area.
+	 */
+	public final void zoomToFit() {
+		if (imageWidth == 0 || imageHeight == 0) {
+			return;
+		}
+		Dimension d = getParent() instanceof JViewport ? getParent().getSize() : getSize();
+		if (d.width > 0 && d.height > 0) {
+			setZoom(Math.min((double) d.width / imageWidth, (double) d.height / imageHeight));
+		}
+	}
+
+	@Override
+	public Dimension getPreferredSize() {
+		if (isPreferredSizeSet() || imageWidth == 0) {
+			return super.getPreferredSize();
+		}
+		return new Dimension((int) Math.ceil(imageWidth * zoom), (int) Math.ceil(imageHeight * zoom));
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+		}
+		g.setColor(getBackground());
+		g.fillRect(clip.x, clip.y, clip.width, clip.height);
+		if (reader == null) {
+			return;
+		}
+		Graphics2D g2 = (Graphics2D) g;
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, zoom < 1.0
+				? RenderingHints.VALUE_INTERPOLATION_BILINEAR : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		int level = level();
+		Rectangle tr = tileRange(getVisibleRect(), level);
+		HashSet<Tile> visible = new HashSet<Tile>();
+		for (int row = tr.y; row < tr.y + tr.height; row++) {
+			for (int col = tr.x; col < tr.x + tr.width; col++) {
+				visible.add(new Tile(level, col, row));
+			}
+		}
+		wanted = visible;
+		Rectangle pr = tileRange(clip, level);
+		for (int row = pr.y; row < pr.y + pr.height; row++) {
+			for (int col = pr.x; col < pr.x + pr.width; col++) {
+				paintTile(g2, new Tile(level, col, row));
+			}
+		}
+	}
+
+	private final void paintTile(Graphics2D g2, Tile t) {
+		Rectangle dst = toComponent(t);
+		BufferedImage image = tiles.get(t);
+		if (image != null) {
+			g2.drawImage(image, dst.x, dst.y, dst.width, dst.height, null);
+			return;
+		}
+		request(t);
+		// scale up a lower resolution meanwhile
+		int span = TILE * t.level;
+		for (int l = t.level * 2, n = 0; n < FALLBACK_LEVELS && l <= Integer.MAX_VALUE / 2; l *= 2, n++) {
+			int coarseSpan = TILE * l;
+			Tile c = new Tile(l, t.col * span / coarseSpan, t.row * span / coarseSpan);
+			BufferedImage coarse = tiles.get(c);
+			if (coarse != null) {
+				int sx = (t.col * span - c.col * coarseSpan) / l;
+				int sy = (t.row * span - c.row * coarseSpan) / l;
+				int sw = Math.max(1, Math.min(span / l, coarse.getWidth() - sx));
+				int sh = Math.max(1, Math.min(span / l, coarse.getHeight() - sy));
+				g2.drawImage(coarse, dst.x, dst.y, dst.x + dst.width, dst.y + dst.height, sx, sy, sx + sw, sy + sh,
+						null);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Queues the decoding of a tile, unless it is queued already. When the tile
+	 * is read, it is cached and its area repainted.
+	 */
+	private final void request(final Tile t) {
+		if (!pending.add(t)) {
+			return;
+		}
+		final int gen = generation;
+		final ImageReader r = reader;
+		READER.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (gen != generation || !wanted.contains(t)) {
+					// scrolled away, requested again when visible
+					pending.remove(t);
+					return;
+				}
+				BufferedImage image = null;
+				try {
+					image = read(r, t);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				final BufferedImage result = image;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (gen != generation) {
+							return;
+						}
+						pending.remove(t);
+						if (result != null) {
+							cache(t, result);
+							repaint(toComponent(t));
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private final static BufferedImage read(ImageReader r, Tile t) throws IOException {
+		int span = TILE * t.level;
+		Rectangle region = new Rectangle(t.col * span, t.row * span, span, span)
+				.intersection(new Rectangle(0, 0, r.getWidth(0), r.getHeight(0)));
+		ImageReadParam param = r.getDefaultReadParam();
+		param.setSourceRegion(region);
+		param.setSourceSubsampling(t.level, t.level, 0, 0);
+		BufferedImage image = r.read(0, param);
+		return ImageDecoder.scaleToFit(image, image.getWidth(), image.getHeight());
+	}
+
+	private final void cache(Tile t, BufferedImage image) {
+		tiles.put(t, image);
+		Iterator<BufferedImage> it = tiles.values().iterator();
+		while (tiles.size() > maxTiles && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	/**
+	 * The subsampling of the tiles for the current zoom, the largest power of
+	 * two not above the image pixels per screen pixel.
+	 */
+	private final int level() {
+		int level = 1;
+		while (level * 2 <= 1.0 / zoom) {
+			level *= 2;
+		}
+		return level;
+	}
+
+	/**
+	 * Computes the columns and rows of the tiles of a level intersecting an
+	 * area of this component.
+	 */
+	private final Rectangle tileRange(Rectangle area, int level) {
+		double span = TILE * level * zoom;
+		int col0 = Math.max(0, (int) Math.floor((area.x - offsetX()) / span));
+		int row0 = Math.max(0, (int) Math.floor((area.y - offsetY()) / span));
+		int col1 = Math.min((imageWidth - 1) / (TILE * level),
+				(int) Math.floor((area.x + area.width - 1 - offsetX()) / span));
+		int row1 = Math.min((imageHeight - 1) / (TILE * level),
+				(int) Math.floor((area.y + area.height - 1 - offsetY()) / span));
+		return new Rectangle(col0, row0, Math.max(0, col1 - col0 + 1), Math.max(0, row1 - row0 + 1));
+	}
+
+	/**
+	 * Computes the area of a tile on this component. Neighboring tiles share
+	 * their edges, so no gaps appear.
+	 */
+	private final Rectangle toComponent(Tile t) {
+		int span = TILE * t.level;
+		int x0 = offsetX() + (int) Math.floor(t.col * span * zoom);
+		int y0 = offsetY() + (int) Math.floor(t.row * span * zoom);
+		int x1 = offsetX() + (int) Math.floor(Math.min((t.col + 1) * (long) span, imageWidth) * zoom);
+		int y1 = offsetY() + (int) Math.floor(Math.min((t.row + 1) * (long) span, imageHeight) * zoom);
+		return new Rectangle(x0, y0, Math.max(1, x1 - x0), Math.max(1, y1 - y0));
+	}
+
+	/**
+	 * The image is centered if it is smaller than this component.
+	 */
+	private final int offsetX() {
+		return Math.max(0, (getWidth() - (int) Math.ceil(imageWidth * zoom)) / 2);
+	}
+
+	private final int offsetY() {
+		return Math.max(0, (getHeight() - (int) Math.ceil(imageHeight * zoom)) / 2);
+	}
+
+	@Override
+	public Dimension getPreferredScrollableViewportSize() {
+		return getPreferredSize();
+	}
+
+	@Override
+	public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return 16;
+	}
+
+	@Override
+	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return (orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width) * 9 / 10;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportWidth() {
+		return getParent() instanceof JViewport && getParent().getWidth() > getPreferredSize().width;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportHeight() {
+		return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height;
+	}
+
+	/**
+	 * A tile of a subsampling level.
+	 */
+	private final static class Tile {
+		private final int level;
+		private final int col;
+		private final int row;
+
+		private Tile(int level, int col, int row) {
+			this.level = level;
+			this.col = col;
+			this.row = row;
+		}
+
+		@Override
+		public int hashCode() {
+			return (level * 31 + col) * 31 + row;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Tile)) {
+				return false;
+			}
+			Tile t = (Tile) obj;
+			return t.level == level && t.col == col && t.row == row;
+		}
+	}
+}
@@ -31,51 +31,91 @@ import javax.swing.ScrollPaneConstants;
 
 /**
  * UIFx is an abbreviation for user interface functions.
+ * <p>
+ * The <code>get...Format()</code> methods return an instance per calling
+ * thread, so the formats can be used from worker threads without
+ * synchronization. The returned formats must not be handed to other threads.
  * 
  * @author Jan Buchinger
  * 
  */
 public class UIFx {
 	/**
-	 * Singleton of decimal number format with 2 fraction digits and
+	 * Per thread instance of decimal number format with 2 fraction digits and
 	 * <code>NumberFormat.setGroupingUsed(true)</code>.
 	 */
-	private static NumberFormat nfDecimal;
+	private final static ThreadLocal<NumberFormat> nfDecimal = new ThreadLocal<NumberFormat>() {
+		@Override
+		protected NumberFormat initialValue() {
+			return initDecimalFormat();
+		}
+	};
 	/**
-	 * Singleton of integer number format with
+	 * Per thread instance of integer number format with
 	 * <code>NumberFormat.setGroupingUsed(true)</code>.
 	 */
-	private static NumberFormat nfInteger;
+	private final static ThreadLocal<NumberFormat> nfInteger = new ThreadLocal<NumberFormat>() {
+		@Override
+		protected NumberFormat initialValue() {
+			return initIntegerFormat();
+		}
+	};
 	/**
-	 * Singleton of very precise date time format
+	 * Per thread instance of very precise date time format
 	 * 
 	 * @see UIFx#getVeryPreciseDateTimeFormat()
 	 */
-	private static SimpleDateFormat sdfDateTimeVeryPrecise;
+	private final static ThreadLocal<SimpleDateFormat> sdfDateTimeVeryPrecise =
+			new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return initVeryPreciseDisplayDateTimeFormat();
+		}
+	};
 	/**
-	 * Singleton of precise date time format
+	 * Per thread instance of precise date time format
 	 * 
 	 * @see UIFx#getPreciseDateTimeFormat()
 	 */
-	private static SimpleDateFormat sdfDateTimePrecise;
+	private final static ThreadLocal<SimpleDateFormat> sdfDateTimePrecise = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return initPreciseDisplayDateTimeFormat();
+		}
+	};
 	/**
-	 * Singleton of date time format
+	 * Per thread instance of date time format
 	 * 
 	 * @see UIFx#getDateTimeFormat()
 	 */
-	private static SimpleDateFormat sdfDateTime;
+	private final static ThreadLocal<SimpleDateFormat> sdfDateTime = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return initDisplayDateTimeFormat();
+		}
+	};
 	/**
-	 * Singleton of date format
+	 * Per thread instance of date format
 	 * 
 	 * @see UIFx#getDateFormat()
 	 */
-	private static SimpleDateFormat sdfDate;
+	private final static ThreadLocal<SimpleDateFormat> sdfDate = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return initDisplayDateFormat();
+		}
+	};
 	/**
-	 * Singleton of time format
+	 * Per thread instance of time format
 	 * 
 	 * @see UIFx#getTimeFormat()
 	 */
-	private static SimpleDateFormat sdfTime;
+	private final static ThreadLocal<SimpleDateFormat> sdfTime = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return initDisplayTimeFormat();
+		}
+	};
 
 	/**
 	 * Formats the specified time in milliseconds as HH:mm:ss.
@@ -373,17 +413,14 @@ public class UIFx {
 	}
 
 	/**
-	 * Gets the singleton object of a decimal number format with 2 fraction digits
-	 * and <code>NumberFormat.setGroupingUsed(true)</code>.
+	 * Gets the calling thread's instance of a decimal number format with 2
+	 * fraction digits and <code>NumberFormat.setGroupingUsed(true)</code>.
 	 * 
-	 * @return singleton object of a decimal number format with 2 fraction digits
+	 * @return The calling thread's decimal number format with 2 fraction digits
 	 *         and <code>NumberFormat.setGroupingUsed(true)</code>.
 	 */
 	public static NumberFormat getDecimalFormat() {
-		if (nfDecimal == null) {
-			nfDecimal = initDecimalFormat();
-		}
-		return nfDecimal;
+		return nfDecimal.get();
 	}
 
 	/**
@@ -401,17 +438,14 @@ public class UIFx {
 	}
 
 	/**
-	 * Gets the singleton object of an integer number format with
+	 * Gets the calling thread's instance of an integer number format with
 	 * <code>NumberFormat.setGroupingUsed(true)</code>.
 	 * 
-	 * @return singleton object of an integer number format with
+	 * @return The calling thread's integer number format with
 	 *         <code>NumberFormat.setGroupingUsed(true)</code>.
 	 */
 	public static NumberFormat getIntegerFormat() {
-		if (nfInteger == null) {
-			nfInteger = initIntegerFormat();
-		}
-		return nfInteger;
+		return nfInteger.get();
 	}
 
 	/**
@@ -465,65 +499,51 @@ public class UIFx {
 	}
 
 	/**
-	 * Gets the singleton object of very precise date time format (dd.MM.yyyy
-	 * HH:mm:ss.SSS)
+	 * Gets the calling thread's instance of very precise date time format
+	 * (dd.MM.yyyy HH:mm:ss.SSS)
 	 * 
 	 * @return a <code>SimpleDateFormat</code> that formats like "dd.MM.yyyy
 	 *         HH:mm:ss.SSS"
 	 */
 	public static SimpleDateFormat getVeryPreciseDateTimeFormat() {
-		if (sdfDateTimeVeryPrecise == null) {
-			sdfDateTimeVeryPrecise = initVeryPreciseDisplayDateTimeFormat();
-		}
-		return sdfDateTimeVeryPrecise;
+		return sdfDateTimeVeryPrecise.get();
 	}
 
 	/**
-	 * Gets the singleton object of precise date time format (dd.MM.yyyy HH:mm:ss)
+	 * Gets the calling thread's instance of precise date time format
+	 * (dd.MM.yyyy HH:mm:ss)
 	 * 
 	 * @return a <code>SimpleDateFormat</code> that formats like "dd.MM.yyyy
 	 *         HH:mm:ss"
 	 */
 	public static SimpleDateFormat getPreciseDateTimeFormat() {
-		if (sdfDateTimePrecise == null) {
-			sdfDateTimePrecise = initPreciseDisplayDateTimeFormat();
-		}
-		return sdfDateTimePrecise;
+		return sdfDateTimePrecise.get();
 	}
 
 	/**
-	 * Gets the singleton object of date time format (dd.MM.yyyy HH:mm)
+	 * Gets the calling thread's instance of date time format (dd.MM.yyyy HH:mm)
 	 * 
 	 * @return a <code>SimpleDateFormat</code> that formats like "dd.MM.yyyy HH:mm"
 	 */
 	public static SimpleDateFormat getDateTimeFormat() {
-		if (sdfDateTime == null) {
-			sdfDateTime = initDisplayDateTimeFormat();
-		}
-		return sdfDateTime;
+		return sdfDateTime.get();
 	}
 
 	/**
-	 * Gets the singleton object of date format (dd.MM.yyyy)
+	 * Gets the calling thread's instance of date format (dd.MM.yyyy)
 	 * 
 	 * @return a <code>SimpleDateFormat</code> that formats like "dd.MM.yyyy"
 	 */
 	public static SimpleDateFormat getDateFormat() {
-		if (sdfDate == null) {
-			sdfDate = initDisplayDateFormat();
-		}
-		return sdfDate;
+		return sdfDate.get();
 	}
 
 	/**
-	 * Gets the singleton object of time format (HH:mm)
+	 * Gets the calling thread's instance of time format (HH:mm)
 	 * 
 	 * @return a <code>SimpleDateFormat</code> that formats like "HH:mm"
 	 */
 	public static SimpleDateFormat getTimeFormat() {
-		if (sdfTime == null) {
-			sdfTime = initDisplayTimeFormat();
-		}
-		return sdfTime;
+		return sdfTime.get();
 	}
 }
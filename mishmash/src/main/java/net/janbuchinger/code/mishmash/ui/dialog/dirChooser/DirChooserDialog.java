@@ -25,8 +25,6 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.io.File;
-import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.Vector;
 
 import javax.swing.BorderFactory;
@@ -40,10 +38,8 @@ import javax.swing.event.TreeSelectionListener;
 import javax.swing.event.TreeWillExpandListener;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.ExpandVetoException;
-import javax.swing.tree.TreeNode;
 import javax.swing.tree.TreePath;
 
-import net.janbuchinger.code.mishmash.filefilter.DirectoryFileFilter;
 import net.janbuchinger.code.mishmash.ui.UIFx;
 import net.janbuchinger.code.mishmash.ui.dialog.DialogEscapeHook;
 import net.janbuchinger.code.mishmash.ui.userInput.JTextFieldWithPopUp;
@@ -55,6 +51,10 @@ import net.janbuchinger.code.mishmash.ui.userInput.JTextFieldWithPopUp;
  * directories can be shown or hidden. Upon display it expands to the given
  * directory.
  * <p>
+ * Directories are listed in the background by a <code>DirTreeModel</code> when
+ * they are expanded, so the dialog opens without waiting for the file system.
+ * The search field above the tree selects matching directories while typing.
+ * <p>
  * <code>DirChooserDialog</code> should be windows compatible.
  * 
  * @author Jan Buchinger
@@ -72,6 +72,8 @@ public final class DirChooserDialog extends JDialog
 	// private DefaultMutableTreeNode root;
 	// private JScrollPane spTree;
 	private JPanel treePanel;
+	private DirTreeModel model;
+	private DirTreeSearch search;
 
 	private final File rootFile;
 
@@ -180,8 +182,6 @@ public final class DirChooserDialog extends JDialog
 			expandPath = System.getProperty("user.home");
 		if (expandPath.equals(""))
 			expandPath = System.getProperty("user.home");
-		DefaultMutableTreeNode expFrm = null;
-		int expFrmIndex = 0;
 		new DialogEscapeHook(this);
 		answer = CANCEL;
 		path = "";
@@ -197,59 +197,7 @@ public final class DirChooserDialog extends JDialog
 		lbPreview = new JTextFieldWithPopUp();
 		lbPreview.setEditable(false);
 
-		File f = new File(expandPath);
-		File fParent;
-		Vector<String> vcPath = new Vector<String>();
-		String str;
-		vcPath.add(f.getName());
-		while ((fParent = f.getParentFile()) != null) {
-			str = fParent.getName();
-			if (str.equals(""))
-				str = fParent.getPath();
-			f = f.getParentFile();
-			vcPath.add(str);
-		}
-		DefaultMutableTreeNode[] path = new DefaultMutableTreeNode[vcPath.size()];
-		for (int i = 0; i < path.length; i++) {
-			path[i] = new DefaultMutableTreeNode(vcPath.get(path.length - 1 - i));
-		}
-
-		DefaultMutableTreeNode root = null;
-		DefaultMutableTreeNode xNode = null;
-		if (!hasMultipleRoots || relative) {
-			root = new DefaultMutableTreeNode(rootFile.getAbsolutePath());
-			File[] dirs = lsDirs(rootFile);
-			File[] subDirs;
-			DefaultMutableTreeNode node;
-			for (int i = 0; i < dirs.length; i++) {
-				node = new DefaultMutableTreeNode(dirs[i].getName());
-				if (path.length > 1 && node.toString().equals(path[1].toString())) {
-					expFrm = node;
-					expFrmIndex = 2;
-				}
-				subDirs = lsDirs(dirs[i]);
-				if (subDirs == null)
-					continue;
-				for (int j = 0; j < subDirs.length; j++) {
-					node.add(xNode = new DefaultMutableTreeNode(subDirs[j].getName()));
-				}
-				root.add(node);
-			}
-		} else {
-			root = new DefaultMutableTreeNode("+");
-			for (int i = 0; i < roots.length; i++) {
-				root.add(xNode = new DefaultMutableTreeNode(roots[i].getAbsolutePath()));
-				if (xNode.toString().equals(path[0].toString())) {
-					expFrm = xNode;
-					expFrmIndex = 1;
-				}
-			}
-		}
-		tree = new JTree(root);
-
-		if (hasMultipleRoots && !relative)
-			tree.setRootVisible(false);
-
+		tree = new JTree(new DefaultMutableTreeNode());
 		tree.addTreeSelectionListener(this);
 		tree.addMouseListener(this);
 		tree.addTreeWillExpandListener(this);
@@ -258,7 +206,10 @@ public final class DirChooserDialog extends JDialog
 		treePanel = new JPanel(new BorderLayout());
 		treePanel.add(UIFx.initScrollPane(tree, 15), BorderLayout.CENTER);
 
+		search = new DirTreeSearch(tree);
+
 		JPanel pnContent = new JPanel(new BorderLayout());
+		pnContent.add(search, BorderLayout.NORTH);
 		pnContent.add(treePanel, BorderLayout.CENTER);
 		pnContent.add(lbPreview, BorderLayout.SOUTH);
 		pnContent.setBorder(BorderFactory.createEmptyBorder(4, 4, 2, 4));
@@ -270,62 +221,96 @@ public final class DirChooserDialog extends JDialog
 		setContentPane(pnContent2);
 		UIFx.sizeAndCenter(this, parent, 0.3, 0.8);
 		UIFx.center(this, parent);
-		if (expFrm != null) {
-			expandPath(expFrm, path, expFrmIndex);
-		}
+		initModel(new File(expandPath));
 		// setVisible(true);
 	}
 
-	private final void expandPath(DefaultMutableTreeNode expandFrom, DefaultMutableTreeNode[] path,
-			int expandFromIndex) {
+	/**
+	 * Replaces the tree model by a new, unloaded one and expands to the supplied
+	 * directory in the background.
+	 */
+	private final void initModel(File expandTo) {
+		search.cancel();
+		if (model != null) {
+			model.dispose();
+		}
+		DirTreeNode root;
 		if (!hasMultipleRoots || relative) {
-
+			root = new DirTreeNode(rootFile.getAbsoluteFile(), rootFile.getAbsolutePath());
 		} else {
-			File[] fa = lsDirs(new File(path[0].toString()));
-			if (fa != null)
-				for (int i = 0; i < fa.length; i++) {
-					expandFrom.add(new DefaultMutableTreeNode(fa[i].getName()));
-				}
-		}
-		DefaultMutableTreeNode ndx = null;
-		String filename;
-		Enumeration<?> nodes;
-		for (int i = expandFromIndex; i < path.length; i++) {
-			filename = path[i].toString();
-			// System.out.println(expandFrom);
-			tree.expandPath(new TreePath(expandFrom.getPath()));
-			nodes = expandFrom.children();
-			while (nodes.hasMoreElements()) {
-				ndx = (DefaultMutableTreeNode) nodes.nextElement();
-				if (ndx.toString().equals(filename)) {
-					expandFrom = ndx;
-				}
+			root = new DirTreeNode(null, "+");
+			File[] roots = File.listRoots();
+			for (int i = 0; i < roots.length; i++) {
+				root.add(new DirTreeNode(roots[i], roots[i].getAbsolutePath()));
 			}
+			root.setState(DirTreeNode.LOADED);
 		}
-		TreePath tp = new TreePath(expandFrom.getPath());
-		tree.setSelectionPath(tp);
-		tree.scrollPathToVisible(tp);
+		model = new DirTreeModel(root, treePopupMenu.showHiddenFolders());
+		tree.setModel(model);
+		tree.setRootVisible(!hasMultipleRoots || relative);
+		expandPath(model, root, pathNames(expandTo));
 	}
 
-	private final File[] lsDirs(File f) {
-		File[] dirs = f.listFiles(new DirectoryFileFilter(treePopupMenu.showHiddenFolders()));
-		if (dirs != null) {
-			Arrays.sort(dirs);
-		} else {
-			dirs = new File[0];
+	/**
+	 * Splits a directory in the names of the nodes leading to it from the root
+	 * node.
+	 */
+	private final String[] pathNames(File f) {
+		Vector<String> vcPath = new Vector<String>();
+		if (f != null) {
+			File stop = !hasMultipleRoots || relative ? rootFile.getAbsoluteFile() : null;
+			f = f.getAbsoluteFile();
+			String str;
+			while (f != null && !f.equals(stop)) {
+				str = f.getName();
+				if (str.equals(""))
+					str = f.getPath();
+				vcPath.add(str);
+				f = f.getParentFile();
+			}
+			if (stop != null && f == null) {
+				// not below the root directory
+				vcPath.clear();
+			}
+		}
+		String[] names = new String[vcPath.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = vcPath.get(names.length - 1 - i);
 		}
-		return dirs;
+		return names;
+	}
+
+	/**
+	 * Resolves the path in the background and selects the deepest node found.
+	 * Only the directories along the path are checked, their siblings are listed
+	 * afterwards.
+	 */
+	private final void expandPath(final DirTreeModel m, DirTreeNode root, String[] names) {
+		m.resolve(root, names, new DirTreePathListener() {
+			@Override
+			public void resolved(DirTreeNode node) {
+				if (m == model) {
+					select(node);
+				}
+			}
+		});
+	}
+
+	private final void select(DirTreeNode node) {
+		TreePath tp = new TreePath(node.getPath());
+		tree.setSelectionPath(tp);
+		tree.scrollPathToVisible(tp);
 	}
 
 	private final String parsePath(TreePath tp) {
-		int x = 0;
-		if (hasMultipleRoots && !relative)
-			x++;
-		File f = new File(tp.getPathComponent(x++).toString());
-		for (int i = x; i < tp.getPathCount(); i++) {
-			f = new File(f, tp.getPathComponent(i).toString());
+		Object o;
+		for (int i = tp.getPathCount() - 1; i >= 0; i--) {
+			o = tp.getPathComponent(i);
+			if (o instanceof DirTreeNode && ((DirTreeNode) o).getFile() != null) {
+				return ((DirTreeNode) o).getFile().getAbsolutePath();
+			}
 		}
-		return f.getAbsolutePath();
+		return "";
 	}
 
 	@Override
@@ -337,33 +322,18 @@ public final class DirChooserDialog extends JDialog
 	}
 
 	@Override
-	public final void treeWillExpand(TreeExpansionEvent event) throws ExpandVetoException {
-		File[] subDirs;
-		DefaultMutableTreeNode node;
-		Enumeration<?> nodes;
-		TreeNode[] pathNodes;
-		DefaultMutableTreeNode root = (DefaultMutableTreeNode) event.getPath().getLastPathComponent();
-		nodes = root.children();
-		File fx;
-		while (nodes.hasMoreElements()) {
-			node = (DefaultMutableTreeNode) nodes.nextElement();
-			pathNodes = node.getPath();
-
-			int i = 0;
-			if (hasMultipleRoots && !relative)
-				i++;
-			fx = new File(pathNodes[i++].toString());
-
-			for (; i < pathNodes.length; i++) {
-				fx = new File(fx, pathNodes[i].toString());
-			}
-			subDirs = lsDirs(fx);
+	public final void setVisible(boolean b) {
+		if (!b) {
+			search.cancel();
+		}
+		super.setVisible(b);
+	}
 
-			if (subDirs == null)
-				continue;
-			for (int j = 0; j < subDirs.length; j++) {
-				node.add(new DefaultMutableTreeNode(subDirs[j].getName()));
-			}
+	@Override
+	public final void treeWillExpand(TreeExpansionEvent event) throws ExpandVetoException {
+		Object node = event.getPath().getLastPathComponent();
+		if (node instanceof DirTreeNode) {
+			model.load((DirTreeNode) node, null);
 		}
 	}
 
@@ -414,95 +384,34 @@ public final class DirChooserDialog extends JDialog
 	}
 
 	/**
-	 * This method is called by <code>TreePopupMenu</code>.
+	 * Rebuilds the tree and expands it to the selected directory. The listings
+	 * are taken from the <code>DirListingCache</code>.
 	 */
 	public final void reload() {
+		initModel(path.equals("") ? null : new File(path));
+	}
 
-		File f = new File(this.path);
-		File fParent;
-		Vector<String> vcPath = new Vector<String>();
-		String str;
-		vcPath.add(f.getName());
-		while ((fParent = f.getParentFile()) != null) {
-			str = fParent.getName();
-			if (str.equals(""))
-				str = fParent.getPath();
-			f = f.getParentFile();
-			vcPath.add(str);
-		}
-		DefaultMutableTreeNode[] path = new DefaultMutableTreeNode[vcPath.size()];
-		for (int i = 0; i < path.length; i++) {
-			path[i] = new DefaultMutableTreeNode(vcPath.get(path.length - 1 - i));
-		}
-
-		DefaultMutableTreeNode root = null;
-		DefaultMutableTreeNode xNode = null;
-		DefaultMutableTreeNode expFrm = null;
-		int expFrmIndex = 0;
-		if (!hasMultipleRoots || relative) {
-			root = new DefaultMutableTreeNode(rootFile.getAbsolutePath());
-			File[] dirs = lsDirs(rootFile);
-			File[] subDirs;
-			DefaultMutableTreeNode node;
-			for (int i = 0; i < dirs.length; i++) {
-				node = new DefaultMutableTreeNode(dirs[i].getName());
-				if (path.length > 1) {
-					if (node.toString().equals(path[1].toString())) {
-						expFrm = node;
-						expFrmIndex = 2;
-					}
-				}
-				subDirs = lsDirs(dirs[i]);
-				if (subDirs == null)
-					continue;
-				for (int j = 0; j < subDirs.length; j++) {
-					node.add(new DefaultMutableTreeNode(subDirs[j].getName()));
-				}
-				root.add(node);
-			}
-		} else {
-			root = new DefaultMutableTreeNode("+");
-			File[] roots = File.listRoots();
-			for (int i = 0; i < roots.length; i++) {
-				root.add(xNode = new DefaultMutableTreeNode(roots[i].getAbsolutePath()));
-				if (xNode.toString().equals(path[0].toString())) {
-					expFrm = xNode;
-					expFrmIndex = 1;
-				}
-			}
-		}
-
-		tree = new JTree(root);
-		if (hasMultipleRoots && !relative)
-			tree.setRootVisible(false);
-
-		tree.addTreeWillExpandListener(this);
-		tree.addTreeSelectionListener(this);
-		tree.addMouseListener(this);
-		tree.setComponentPopupMenu(treePopupMenu);
-		treePanel.removeAll();
-		treePanel.add(UIFx.initScrollPane(tree, 15), BorderLayout.CENTER);
-		treePanel.revalidate();
-		if (expFrm != null) {
-			expandPath(expFrm, path, expFrmIndex);
-		}
+	/**
+	 * This method is called by <code>TreePopupMenu</code>.
+	 */
+	final void showHiddenFoldersChanged() {
+		model.setShowHidden(treePopupMenu.showHiddenFolders());
 	}
 
 	@Override
 	public final void mouseClicked(MouseEvent e) {
 		if (e.getSource() == tree) {
 			if (System.currentTimeMillis() - click < 500) {
-				DefaultMutableTreeNode root = (DefaultMutableTreeNode) tree.getLastSelectedPathComponent();
-				if (root.isLeaf()) {
-					File[] subDirs;
-					File froot = new File(parsePath(tree.getLeadSelectionPath()));
-					subDirs = lsDirs(froot);
-					if (subDirs == null || subDirs.length == 0)
-						return;
-					for (int y = 0; y < subDirs.length; y++) {
-						root.add(new DefaultMutableTreeNode(subDirs[y].getName()));
-					}
-					tree.expandPath(tree.getLeadSelectionPath());
+				Object o = tree.getLastSelectedPathComponent();
+				if (o instanceof DirTreeNode && ((DirTreeNode) o).isLeaf()) {
+					// the directory may have got sub directories since it was listed
+					final TreePath tp = tree.getLeadSelectionPath();
+					model.refresh((DirTreeNode) o, new Runnable() {
+						@Override
+						public void run() {
+							tree.expandPath(tp);
+						}
+					});
 				}
 			}
 			click = System.currentTimeMillis();
@@ -520,4 +429,4 @@ public final class DirChooserDialog extends JDialog
 
 	@Override
 	public final void mouseReleased(MouseEvent e) {}
-}
\ No newline at end of file
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui.dialog.dirChooser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.janbuchinger.code.mishmash.filefilter.DirectoryFileFilter;
+
+/**
+ * <code>DirListingCache</code> caches the sorted sub directories of
+ * directories, hidden ones included, so showing or hiding hidden directories
+ * needs no file system access.
+ * <p>
+ * The least recently used listings are evicted when the cache holds more than
+ * a fixed number of entries. Every cached directory is registered with a
+ * <code>WatchService</code>, its listing is dropped as soon as a sub directory
+ * is created or deleted. If a directory cannot be watched its listing is only
+ * used while its modification time is unchanged.
+ * <p>
+ * <code>DirListingCache</code> is thread safe. The returned arrays are shared
+ * and must not be modified.
+ *
+ * @author Jan Buchinger
+ *
+ * @see DirTreeModel
+ */
+public final class DirListingCache {
+	/**
+	 * The maximum number of sub directories of all cached listings.
+	 */
+	private final static int MAX_ENTRIES = 100000;
+	/**
+	 * The maximum number of cached listings, each one uses a watch.
+	 */
+	private final static int MAX_DIRECTORIES = 4096;
+
+	private static DirListingCache shared;
+
+	private final LinkedHashMap<File, Listing> cache;
+	private final CopyOnWriteArrayList<DirListingListener> listeners;
+	private int entries;
+	private int invalidations;
+	private WatchService watcher;
+	private boolean watcherFailed;
+
+	/**
+	 * Gets the <code>DirListingCache</code> shared by all
+	 * <code>DirChooserDialog</code>s.
+	 *
+	 * @return The shared <code>DirListingCache</code>.
+	 */
+	public final static synchronized DirListingCache getShared() {
+		if (shared == null) {
+			shared = new DirListingCache();
+		}
+		return shared;
+	}
+
+	/**
+	 * Constructs a new, empty <code>DirListingCache</code>.
+	 */
+	public DirListingCache() {
+		cache = new LinkedHashMap<File, Listing>(256, 0.75f, true);
+		listeners = new CopyOnWriteArrayList<DirListingListener>();
+		entries = 0;
+		invalidations = 0;
+	}
+
+	/**
+	 * Lists the sub directories of a directory, from the cache if possible.
+	 *
+	 * @param directory
+	 *            The directory to list.
+	 * @return The sorted sub directories including hidden ones. An empty array if
+	 *         the directory cannot be read.
+	 */
+	public final File[] list(File directory) {
+		File[] dirs = getIfPresent(directory);
+		if (dirs != null) {
+			return dirs;
+		}
+		int inv;
+		synchronized (this) {
+			inv = invalidations;
+		}
+		// register before listing so no change gets lost in between
+		WatchKey key = watch(directory);
+		long lastModified = key == null ? directory.lastModified() : 0;
+		dirs = directory.listFiles(new DirectoryFileFilter(true));
+		if (dirs == null) {
+			unwatch(directory, key);
+			return new File[0];
+		}
+		Arrays.sort(dirs);
+		synchronized (this) {
+			if (inv != invalidations) {
+				// a change was reported meanwhile, the listing may be outdated
+				unwatch(directory, key);
+				return dirs;
+			}
+			Listing old = cache.put(directory, new Listing(dirs, key, lastModified));
+			if (old != null) {
+				entries -= old.dirs.length;
+				if (old.key != null && old.key != key) {
+					old.key.cancel();
+				}
+			}
+			entries += dirs.length;
+			evict();
+		}
+		return dirs;
+	}
+
+	/**
+	 * Gets a cached listing without listing the directory.
+	 *
+	 * @param directory
+	 *            The directory.
+	 * @return The sorted sub directories including hidden ones or
+	 *         <code>null</code> if the listing is not cached.
+	 */
+	public final File[] getIfPresent(File directory) {
+		Listing l;
+		synchronized (this) {
+			l = cache.get(directory);
+		}
+		if (l == null) {
+			return null;
+		}
+		if (l.key == null && l.lastModified != directory.lastModified()) {
+			invalidate(directory);
+			return null;
+		}
+		return l.dirs;
+	}
+
+	/**
+	 * Removes the listing of a directory from the cache.
+	 *
+	 * @param directory
+	 *            The directory.
+	 */
+	public final synchronized void invalidate(File directory) {
+		invalidations++;
+		Listing l = cache.remove(directory);
+		if (l != null) {
+			remove(l);
+		}
+	}
+
+	/**
+	 * Gets the number of cached listings.
+	 *
+	 * @return The number of directories in the cache.
+	 */
+	public final synchronized int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Removes all listings from the cache.
+	 */
+	public final synchronized void clear() {
+		invalidations++;
+		for (Listing l : cache.values()) {
+			if (l.key != null) {
+				l.key.cancel();
+			}
+		}
+		cache.clear();
+		entries = 0;
+	}
+
+	/**
+	 * Adds a listener that is notified when a listing changes on the file system.
+	 *
+	 * @param l
+	 *            The listener to add.
+	 */
+	public final void addListener(DirListingListener l) {
+		listeners.add(l);
+	}
+
+	/**
+	 * Removes a listener.
+	 *
+	 * @param l
+	 *            The listener to remove.
+	 */
+	public final void removeListener(DirListingListener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * Filters hidden directories from a listing.
+	 *
+	 * @param dirs
+	 *            The listing to filter.
+	 * @param showHidden
+	 *            true to keep directories with a name beginning with
+	 *            &quot;.&quot;.
+	 * @return The listing without hidden directories, the supplied array itself
+	 *         if there is nothing to filter.
+	 */
+	public final static File[] filter(File[] dirs, boolean showHidden) {
+		if (showHidden) {
+			return dirs;
+		}
+		int n = 0;
+		File[] visible = new File[dirs.length];
+		for (int i = 0; i < dirs.length; i++) {
+			if (!dirs[i].getName().startsWith(".")) {
+				visible[n++] = dirs[i];
+			}
+		}
+		return n == dirs.length ? dirs : Arrays.copyOf(visible, n);
+	}
+
+	private final void remove(Listing l) {
+		entries -= l.dirs.length;
+		if (l.key != null) {
+			l.key.cancel();
+		}
+	}
+
+	/**
+	 * Cancels a key unless it is used by a cached listing, registering a
+	 * directory again yields the same key.
+	 */
+	private final synchronized void unwatch(File directory, WatchKey key) {
+		Listing l = cache.get(directory);
+		if (key != null && (l == null || l.key != key)) {
+			key.cancel();
+		}
+	}
+
+	private final void evict() {
+		Iterator<Listing> i = cache.values().iterator();
+		while ((entries > MAX_ENTRIES || cache.size() > MAX_DIRECTORIES) && i.hasNext()) {
+			Listing l = i.next();
+			i.remove();
+			remove(l);
+		}
+	}
+
+	private final WatchKey watch(File directory) {
+		WatchService ws;
+		synchronized (this) {
+			if (watcher == null && !watcherFailed) {
+				try {
+					watcher = FileSystems.getDefault().newWatchService();
+					Thread t = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							processEvents();
+						}
+					}, "DirListingCache");
+					t.setDaemon(true);
+					t.start();
+				} catch (IOException | UnsupportedOperationException e) {
+					watcherFailed = true;
+				}
+			}
+			ws = watcher;
+		}
+		if (ws == null) {
+			return null;
+		}
+		try {
+			return directory.toPath().register(ws, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private final void processEvents() {
+		WatchKey key;
+		while (true) {
+			try {
+				key = watcher.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			Path dir = (Path) key.watchable();
+			File directory = dir.toFile();
+			boolean changed = !key.isValid();
+			for (WatchEvent<?> e : key.pollEvents()) {
+				if (changed) {
+					continue;
+				}
+				if (e.kind() == StandardWatchEventKinds.OVERFLOW) {
+					changed = true;
+				} else if (e.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+					changed = Files.isDirectory(dir.resolve((Path) e.context()));
+				} else {
+					changed = contains(directory, ((Path) e.context()).toString());
+				}
+			}
+			key.reset();
+			if (changed) {
+				invalidate(directory);
+				for (DirListingListener l : listeners) {
+					l.invalidated(directory);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a deleted entry was one of the cached sub directories.
+	 */
+	private final synchronized boolean contains(File directory, String name) {
+		Listing l = cache.get(directory);
+		if (l == null) {
+			return false;
+		}
+		for (File f : l.dirs) {
+			if (f.getName().equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private final static class Listing {
+		private final File[] dirs;
+		private final WatchKey key;
+		private final long lastModified;
+
+		private Listing(File[] dirs, WatchKey key, long lastModified) {
+			this.dirs = dirs;
+			this.key = key;
+			this.lastModified = lastModified;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui.dialog.dirChooser;
+
+import java.io.File;
+
+/**
+ * A <code>DirListingListener</code> is notified when a cached directory
+ * listing of a <code>DirListingCache</code> became outdated.
+ * <p>
+ * The listener is called on the thread watching the file system.
+ *
+ * @author Jan Buchinger
+ *
+ * @see DirListingCache#addListener(DirListingListener)
+ */
+public interface DirListingListener {
+	/**
+	 * Called after sub directories were created in or deleted from a directory.
+	 *
+	 * @param directory
+	 *            The directory whose listing changed.
+	 */
+	public void invalidated(File directory);
+}
@@ -0,0 +1,522 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui.dialog.dirChooser;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+
+import net.janbuchinger.code.mishmash.DirectoryInfo;
+import net.janbuchinger.code.mishmash.DirectoryProbe;
+
+/**
+ * <code>DirTreeModel</code> is a lazy <code>TreeModel</code> of
+ * <code>DirTreeNode</code>s. The children of a node are listed on a background
+ * thread when the node is loaded, meanwhile a placeholder node is shown.
+ * <p>
+ * After a node is loaded its children are probed in the background, so those
+ * without sub directories lose their expand handle.
+ * <p>
+ * Listings come from the shared <code>DirListingCache</code>. Loaded nodes keep
+ * their hidden children, so <code>setShowHidden</code> filters in memory, and
+ * they are updated in place when the cache reports a change on the file system.
+ * <p>
+ * All methods must be called on the event dispatch thread.
+ *
+ * @author Jan Buchinger
+ *
+ * @see DirChooserDialog
+ */
+@SuppressWarnings("serial")
+public final class DirTreeModel extends DefaultTreeModel {
+	private final static String LOADING = "Laden...";
+
+	private final static ExecutorService POOL = Executors.newFixedThreadPool(2, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "DirTreeModel");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final DirListingCache cache;
+	private final DirListingListener listener;
+	private final HashMap<DirTreeNode, Vector<Runnable>> pending;
+	private final HashMap<File, DirTreeNode> loaded;
+	private boolean showHidden;
+	private boolean disposed;
+
+	/**
+	 * Constructs a new <code>DirTreeModel</code> backed by the shared
+	 * <code>DirListingCache</code>.
+	 *
+	 * @param root
+	 *            The root node.
+	 * @param showHidden
+	 *            true to show directories with a name beginning with
+	 *            &quot;.&quot;.
+	 */
+	public DirTreeModel(DirTreeNode root, boolean showHidden) {
+		super(root);
+		this.showHidden = showHidden;
+		cache = DirListingCache.getShared();
+		pending = new HashMap<DirTreeNode, Vector<Runnable>>();
+		loaded = new HashMap<File, DirTreeNode>();
+		disposed = false;
+		listener = new WeakListener(this, cache);
+		cache.addListener(listener);
+	}
+
+	/**
+	 * Checks whether hidden directories are shown.
+	 *
+	 * @return true if directories with a name beginning with &quot;.&quot; are
+	 *         shown.
+	 */
+	public final boolean isShowHidden() {
+		return showHidden;
+	}
+
+	/**
+	 * Shows or hides hidden directories. The children of loaded nodes are
+	 * filtered in memory, expanded nodes stay expanded.
+	 *
+	 * @param showHidden
+	 *            true to show directories with a name beginning with
+	 *            &quot;.&quot;.
+	 */
+	public final void setShowHidden(boolean showHidden) {
+		if (this.showHidden == showHidden) {
+			return;
+		}
+		this.showHidden = showHidden;
+		Vector<DirTreeNode> nodes = new Vector<DirTreeNode>();
+		Enumeration<?> e = ((DefaultMutableTreeNode) root).breadthFirstEnumeration();
+		while (e.hasMoreElements()) {
+			Object o = e.nextElement();
+			if (o instanceof DirTreeNode) {
+				nodes.add((DirTreeNode) o);
+			}
+		}
+		// the enumeration must not see the tree while it is changed
+		for (DirTreeNode node : nodes) {
+			if (node.isLoaded() && node.getListing() != null) {
+				merge(node, DirListingCache.filter(node.getListing(), showHidden));
+			} else if (node.getState() == DirTreeNode.UNLOADED) {
+				boolean leaf = node.isProbedEmpty(showHidden);
+				if (leaf != node.isLeaf()) {
+					node.setLeaf(leaf);
+					nodeChanged(node);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lists the children of a node in the background unless they are loaded
+	 * already or being loaded.
+	 *
+	 * @param node
+	 *            The node to load.
+	 * @param onLoaded
+	 *            Run on the event dispatch thread once the children are inserted,
+	 *            immediately if the node is loaded already. May be
+	 *            <code>null</code>.
+	 */
+	public final void load(final DirTreeNode node, Runnable onLoaded) {
+		if (node.isLoaded()) {
+			if (onLoaded != null) {
+				onLoaded.run();
+			}
+			return;
+		}
+		if (onLoaded != null) {
+			Vector<Runnable> callbacks = pending.get(node);
+			if (callbacks == null) {
+				pending.put(node, callbacks = new Vector<Runnable>());
+			}
+			callbacks.add(onLoaded);
+		}
+		if (node.isLoading() || disposed) {
+			return;
+		}
+		node.setState(DirTreeNode.LOADING);
+		DefaultMutableTreeNode placeholder = new DefaultMutableTreeNode(LOADING, false);
+		insertNodeInto(placeholder, node, node.getChildCount());
+		list(node, placeholder);
+	}
+
+	private final void list(final DirTreeNode node, final DefaultMutableTreeNode placeholder) {
+		POOL.execute(new Runnable() {
+			@Override
+			public void run() {
+				final File[] dirs = cache.list(node.getFile());
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						loaded(node, placeholder, dirs);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Resolves a path below a node without listing the directories along the path
+	 * first. The components are checked in the background, then their nodes are
+	 * inserted into ancestors that are not loaded yet and these ancestors are
+	 * listed in the background. Hidden components are only resolved while hidden
+	 * directories are shown.
+	 *
+	 * @param node
+	 *            The node to resolve the path from.
+	 * @param names
+	 *            The names of the directories below the node.
+	 * @param l
+	 *            Receives the node of the deepest existing directory, which may
+	 *            be the supplied node.
+	 */
+	public final void resolve(DirTreeNode node, String[] names, DirTreePathListener l) {
+		resolve(node, names, true, l);
+	}
+
+	/**
+	 * Resolves a path below a node like <code>resolve(node, names, l)</code>,
+	 * optionally without listing the ancestors.
+	 *
+	 * @param node
+	 *            The node to resolve the path from.
+	 * @param names
+	 *            The names of the directories below the node.
+	 * @param listAncestors
+	 *            false to only insert the path into ancestors that are not
+	 *            loaded yet, their other children are listed when they are
+	 *            expanded.
+	 * @param l
+	 *            Receives the node of the deepest existing directory, which may
+	 *            be the supplied node.
+	 */
+	final void resolve(final DirTreeNode node, final String[] names, final boolean listAncestors,
+			final DirTreePathListener l) {
+		final File base = node.getFile();
+		POOL.execute(new Runnable() {
+			@Override
+			public void run() {
+				final File[] files = new File[names.length];
+				int n = 0;
+				File f = base;
+				for (; n < names.length; n++) {
+					f = f == null ? new File(names[n]) : new File(f, names[n]);
+					if (!f.isDirectory()) {
+						break;
+					}
+					files[n] = f;
+				}
+				final int depth = n;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (!disposed) {
+							l.resolved(insertPath(node, names, files, depth, listAncestors));
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private final DirTreeNode insertPath(DirTreeNode node, String[] names, File[] files, int depth,
+			boolean listAncestors) {
+		DirTreeNode child;
+		for (int i = 0; i < depth; i++) {
+			child = node.getChild(names[i]);
+			if (child == null) {
+				if (node.isLoaded() || (!showHidden && names[i].startsWith("."))) {
+					break;
+				}
+				child = new DirTreeNode(files[i]);
+				int k = 0;
+				while (k < node.getChildCount() && node.getChildAt(k) instanceof DirTreeNode
+						&& ((DirTreeNode) node.getChildAt(k)).getFile().compareTo(files[i]) < 0) {
+					k++;
+				}
+				node.insert(child, k);
+				nodesWereInserted(node, new int[] { k });
+				if (listAncestors && node.getState() == DirTreeNode.UNLOADED) {
+					// list the siblings later, the path child is kept by the merge
+					node.setState(DirTreeNode.LOADING);
+					list(node, null);
+				}
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	/**
+	 * Lists the children of a node again, bypassing the cache. The children that
+	 * still exist keep their state.
+	 *
+	 * @param node
+	 *            The node to refresh.
+	 * @param onLoaded
+	 *            Run on the event dispatch thread once the children are updated.
+	 *            May be <code>null</code>.
+	 */
+	public final void refresh(DirTreeNode node, Runnable onLoaded) {
+		cache.invalidate(node.getFile());
+		if (node.isLoaded()) {
+			update(node, onLoaded);
+		} else {
+			node.clearProbed();
+			node.setLeaf(false);
+			load(node, onLoaded);
+		}
+	}
+
+	/**
+	 * Stops delivering results to this model. Background listings that are still
+	 * running are discarded when they finish.
+	 */
+	public final void dispose() {
+		disposed = true;
+		pending.clear();
+		loaded.clear();
+		cache.removeListener(listener);
+	}
+
+	/**
+	 * Called by the <code>DirListingCache</code> when a directory changed, updates
+	 * the node of the directory if it is loaded.
+	 */
+	private final void invalidated(final File directory) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				DirTreeNode node = loaded.get(directory);
+				if (!disposed && node != null && node.isLoaded() && node.getRoot() == root) {
+					update(node, null);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Lists a loaded node in the background and merges the result.
+	 */
+	private final void update(final DirTreeNode node, final Runnable onLoaded) {
+		POOL.execute(new Runnable() {
+			@Override
+			public void run() {
+				final File[] dirs = cache.list(node.getFile());
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (disposed) {
+							return;
+						}
+						node.setListing(dirs);
+						merge(node, DirListingCache.filter(dirs, showHidden));
+						if (onLoaded != null) {
+							onLoaded.run();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private final void loaded(DirTreeNode node, DefaultMutableTreeNode placeholder, File[] dirs) {
+		if (disposed) {
+			return;
+		}
+		if (placeholder != null) {
+			removeNodeFromParent(placeholder);
+		}
+		node.setListing(dirs);
+		node.setState(DirTreeNode.LOADED);
+		loaded.put(node.getFile(), node);
+		if (!merge(node, DirListingCache.filter(dirs, showHidden))) {
+			nodeChanged(node);
+		}
+		Vector<Runnable> callbacks = pending.remove(node);
+		if (callbacks != null) {
+			for (Runnable r : callbacks) {
+				r.run();
+			}
+		}
+	}
+
+	/**
+	 * Makes the children of a node match the sorted directories, removing and
+	 * inserting only what differs.
+	 *
+	 * @return true if children were removed or inserted.
+	 */
+	private final boolean merge(DirTreeNode node, File[] dirs) {
+		HashSet<File> keep = new HashSet<File>(dirs.length * 2);
+		for (int i = 0; i < dirs.length; i++) {
+			keep.add(dirs[i]);
+		}
+		int n = 0;
+		int[] indices = new int[node.getChildCount()];
+		for (int i = 0; i < node.getChildCount(); i++) {
+			if (!keep.contains(((DirTreeNode) node.getChildAt(i)).getFile())) {
+				indices[n++] = i;
+			}
+		}
+		if (n > 0) {
+			int[] removedIndices = new int[n];
+			Object[] removed = new Object[n];
+			for (int i = n - 1; i >= 0; i--) {
+				removedIndices[i] = indices[i];
+				removed[i] = node.getChildAt(indices[i]);
+				node.remove(indices[i]);
+				forget((DirTreeNode) removed[i]);
+			}
+			nodesWereRemoved(node, removedIndices, removed);
+		}
+		// the remaining children are a sorted subset of dirs
+		int k = 0;
+		int m = 0;
+		indices = new int[dirs.length];
+		Vector<DirTreeNode> inserted = new Vector<DirTreeNode>();
+		for (int i = 0; i < dirs.length; i++) {
+			if (k < node.getChildCount() && ((DirTreeNode) node.getChildAt(k)).getFile().equals(dirs[i])) {
+				k++;
+				continue;
+			}
+			DirTreeNode child = new DirTreeNode(dirs[i]);
+			node.insert(child, k);
+			inserted.add(child);
+			indices[m++] = k++;
+		}
+		if (m > 0) {
+			int[] insertedIndices = new int[m];
+			System.arraycopy(indices, 0, insertedIndices, 0, m);
+			nodesWereInserted(node, insertedIndices);
+			probeLeaves(inserted);
+		}
+		return n > 0 || m > 0;
+	}
+
+	/**
+	 * Removes a node that left the tree and its loaded descendants from the index.
+	 */
+	private final void forget(DirTreeNode node) {
+		Enumeration<?> e = node.depthFirstEnumeration();
+		while (e.hasMoreElements()) {
+			Object o = e.nextElement();
+			if (o instanceof DirTreeNode && loaded.get(((DirTreeNode) o).getFile()) == o) {
+				loaded.remove(((DirTreeNode) o).getFile());
+			}
+		}
+	}
+
+	/**
+	 * Finds out which of the new children have sub directories, from the cache if
+	 * they were listed before or else by the <code>DirectoryProbe</code>, so those
+	 * without can be displayed as leafs.
+	 */
+	private final void probeLeaves(Vector<DirTreeNode> nodes) {
+		final DirTreeNode[] children = nodes.toArray(new DirTreeNode[nodes.size()]);
+		POOL.execute(new Runnable() {
+			@Override
+			public void run() {
+				final boolean[] subDirs = new boolean[children.length];
+				final boolean[] visibleSubDirs = new boolean[children.length];
+				final boolean[] known = new boolean[children.length];
+				Vector<File> toProbe = new Vector<File>();
+				Vector<Integer> probeIndices = new Vector<Integer>();
+				for (int i = 0; i < children.length; i++) {
+					File[] dirs = cache.getIfPresent(children[i].getFile());
+					if (dirs != null) {
+						known[i] = true;
+						subDirs[i] = dirs.length > 0;
+						visibleSubDirs[i] = DirListingCache.filter(dirs, false).length > 0;
+					} else {
+						toProbe.add(children[i].getFile());
+						probeIndices.add(i);
+					}
+				}
+				if (toProbe.size() > 0) {
+					DirectoryInfo[] infos = DirectoryProbe.getShared()
+							.probe(toProbe.toArray(new File[toProbe.size()]), false);
+					for (int j = 0; j < infos.length; j++) {
+						int i = probeIndices.get(j);
+						if (infos[j] != null) {
+							known[i] = true;
+							subDirs[i] = infos[j].isReadable() && infos[j].hasSubDirectories();
+							visibleSubDirs[i] = infos[j].isReadable() && infos[j].hasVisibleSubDirectories();
+						}
+					}
+				}
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (disposed) {
+							return;
+						}
+						for (int i = 0; i < children.length; i++) {
+							if (known[i] && children[i].getState() == DirTreeNode.UNLOADED) {
+								children[i].setProbed(subDirs[i], visibleSubDirs[i]);
+								if (children[i].isProbedEmpty(showHidden)) {
+									children[i].setLeaf(true);
+									nodeChanged(children[i]);
+								}
+							}
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Forwards changes to the model as long as it is in use, the shared cache must
+	 * not keep models of closed dialogs alive.
+	 */
+	private final static class WeakListener implements DirListingListener {
+		private final WeakReference<DirTreeModel> model;
+		private final DirListingCache cache;
+
+		private WeakListener(DirTreeModel model, DirListingCache cache) {
+			this.model = new WeakReference<DirTreeModel>(model);
+			this.cache = cache;
+		}
+
+		@Override
+		public void invalidated(File directory) {
+			DirTreeModel m = model.get();
+			if (m == null) {
+				cache.removeListener(this);
+			} else {
+				m.invalidated(directory);
+			}
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui.dialog.dirChooser;
+
+import java.io.File;
+import java.util.HashMap;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.MutableTreeNode;
+import javax.swing.tree.TreeNode;
+
+/**
+ * <code>DirTreeNode</code> is a node of a <code>DirTreeModel</code>
+ * representing a directory. Its children are listed lazily by the model.
+ * <p>
+ * A node that is not loaded yet is only a leaf if it was probed to have no sub
+ * directories, so the tree shows an expand handle for it without listing the
+ * directory.
+ *
+ * @author Jan Buchinger
+ *
+ * @see DirTreeModel
+ */
+@SuppressWarnings("serial")
+public final class DirTreeNode extends DefaultMutableTreeNode {
+	final static int UNLOADED = 0, LOADING = 1, LOADED = 2;
+
+	private final File file;
+	private final String name;
+	private int state;
+	private File[] listing;
+	private boolean probed, subDirs, visibleSubDirs;
+	private boolean leaf;
+	private HashMap<String, DirTreeNode> index;
+
+	/**
+	 * Constructs a new <code>DirTreeNode</code> named like the directory.
+	 *
+	 * @param file
+	 *            The directory.
+	 */
+	public DirTreeNode(File file) {
+		this(file, file.getName());
+	}
+
+	/**
+	 * Constructs a new <code>DirTreeNode</code>.
+	 *
+	 * @param file
+	 *            The directory or <code>null</code> for a virtual node that only
+	 *            holds the file system roots.
+	 * @param name
+	 *            The name displayed in the tree.
+	 */
+	public DirTreeNode(File file, String name) {
+		super(name);
+		this.file = file;
+		this.name = name;
+		state = UNLOADED;
+	}
+
+	/**
+	 * Gets the directory of this node.
+	 *
+	 * @return The directory or <code>null</code> for a virtual node.
+	 */
+	public final File getFile() {
+		return file;
+	}
+
+	/**
+	 * Checks whether the children of this node have been listed.
+	 *
+	 * @return true if the children are known.
+	 */
+	public final boolean isLoaded() {
+		return state == LOADED;
+	}
+
+	/**
+	 * Checks whether the children of this node are being listed.
+	 *
+	 * @return true while a listing is running in the background.
+	 */
+	public final boolean isLoading() {
+		return state == LOADING;
+	}
+
+	final int getState() {
+		return state;
+	}
+
+	final void setState(int state) {
+		this.state = state;
+	}
+
+	/**
+	 * Gets all sub directories, hidden ones included, as listed when the node
+	 * was loaded.
+	 */
+	final File[] getListing() {
+		return listing;
+	}
+
+	final void setListing(File[] listing) {
+		this.listing = listing;
+	}
+
+	/**
+	 * Remembers whether the unloaded directory has sub directories, so it can be
+	 * displayed as leaf.
+	 */
+	final void setProbed(boolean subDirs, boolean visibleSubDirs) {
+		probed = true;
+		this.subDirs = subDirs;
+		this.visibleSubDirs = visibleSubDirs;
+	}
+
+	final void clearProbed() {
+		probed = false;
+	}
+
+	/**
+	 * Checks whether an unloaded node is known to have no sub directories.
+	 */
+	final boolean isProbedEmpty(boolean showHidden) {
+		return probed && !(showHidden ? subDirs : visibleSubDirs);
+	}
+
+	/**
+	 * Gets a child by name from the index of the children. The placeholder shown
+	 * while loading is not indexed.
+	 *
+	 * @param name
+	 *            The name of the child.
+	 * @return The child or <code>null</code> if there is no such child.
+	 */
+	public final DirTreeNode getChild(String name) {
+		return index == null ? null : index.get(name);
+	}
+
+	@Override
+	public final void insert(MutableTreeNode newChild, int childIndex) {
+		super.insert(newChild, childIndex);
+		if (newChild instanceof DirTreeNode) {
+			if (index == null) {
+				index = new HashMap<String, DirTreeNode>();
+			}
+			index.put(((DirTreeNode) newChild).name, (DirTreeNode) newChild);
+		}
+	}
+
+	@Override
+	public final void remove(int childIndex) {
+		TreeNode child = getChildAt(childIndex);
+		super.remove(childIndex);
+		if (child instanceof DirTreeNode && index != null) {
+			String childName = ((DirTreeNode) child).name;
+			if (index.get(childName) == child) {
+				index.remove(childName);
+			}
+		}
+	}
+
+	@Override
+	public final boolean isLeaf() {
+		return getChildCount() == 0 && (state == LOADED || leaf);
+	}
+
+	final void setLeaf(boolean leaf) {
+		this.leaf = leaf;
+	}
+
+	@Override
+	public final String toString() {
+		return name;
+	}
+}
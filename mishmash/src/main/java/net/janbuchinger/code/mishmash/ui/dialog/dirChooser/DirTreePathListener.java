@@ -0,0 +1,36 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui.dialog.dirChooser;
+
+/**
+ * A <code>DirTreePathListener</code> receives the node a path was resolved to
+ * by <code>DirTreeModel.resolve</code>.
+ * <p>
+ * The listener is called on the event dispatch thread.
+ *
+ * @author Jan Buchinger
+ *
+ * @see DirTreeModel#resolve(DirTreeNode, String[], DirTreePathListener)
+ */
+public interface DirTreePathListener {
+	/**
+	 * Called once the nodes along the path are in the tree.
+	 *
+	 * @param node
+	 *            The node of the deepest existing directory of the path.
+	 */
+	public void resolved(DirTreeNode node);
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui.dialog.dirChooser;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.BorderFactory;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTree;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+import net.janbuchinger.code.mishmash.filefilter.DirectoryFileFilter;
+import net.janbuchinger.code.mishmash.ui.userInput.JTextFieldWithPopUp;
+
+/**
+ * <code>DirTreeSearch</code> is a search field for the <code>JTree</code> of a
+ * <code>DirChooserDialog</code>.
+ * <p>
+ * While typing, the names of the loaded nodes are matched fuzzily, a short time
+ * after the last key stroke. The best match is selected, enter selects the next
+ * one. Optionally the directories below the root are crawled in the background
+ * up to a fixed depth, matches are inserted into the tree as they are found.
+ * A crawl stops after a fixed number of matches and is cancelled by the next
+ * search.
+ *
+ * @author Jan Buchinger
+ *
+ * @see DirChooserDialog
+ */
+@SuppressWarnings("serial")
+public final class DirTreeSearch extends JPanel implements DocumentListener, ActionListener {
+	private final static int DELAY = 250;
+	private final static int MAX_DEPTH = 4;
+	private final static int MAX_DIRECTORIES = 20000;
+	private final static int MAX_MATCHES = 200;
+
+	private final static ExecutorService CRAWLER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "DirTreeSearch");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final JTree tree;
+	private final JTextFieldWithPopUp tfSearch;
+	private final JCheckBox cbCrawl;
+	private final JLabel lbStatus;
+	private final Timer timer;
+
+	private final Vector<DirTreeNode> matches;
+	private final Vector<Integer> scores;
+	private final HashSet<DirTreeNode> matched;
+	private int current;
+	private int generation;
+	private Crawl crawl;
+
+	/**
+	 * Constructs a new <code>DirTreeSearch</code> for a tree of a
+	 * <code>DirTreeModel</code>.
+	 *
+	 * @param tree
+	 *            The tree to search.
+	 */
+	public DirTreeSearch(JTree tree) {
+		super(new BorderLayout(4, 0));
+		this.tree = tree;
+		tfSearch = new JTextFieldWithPopUp();
+		tfSearch.getDocument().addDocumentListener(this);
+		tfSearch.addActionListener(this);
+		cbCrawl = new JCheckBox("Unterordner durchsuchen");
+		cbCrawl.addActionListener(this);
+		lbStatus = new JLabel(" ");
+		timer = new Timer(DELAY, this);
+		timer.setRepeats(false);
+		matches = new Vector<DirTreeNode>();
+		scores = new Vector<Integer>();
+		matched = new HashSet<DirTreeNode>();
+		current = -1;
+
+		JPanel pnOptions = new JPanel(new BorderLayout(4, 0));
+		pnOptions.add(cbCrawl, BorderLayout.WEST);
+		pnOptions.add(lbStatus, BorderLayout.EAST);
+		add(new JLabel("Suchen:"), BorderLayout.WEST);
+		add(tfSearch, BorderLayout.CENTER);
+		add(pnOptions, BorderLayout.SOUTH);
+		setBorder(BorderFactory.createEmptyBorder(0, 0, 4, 0));
+	}
+
+	/**
+	 * Cancels the running crawl, if any, and forgets the matches, for example
+	 * before the model of the tree is replaced.
+	 */
+	public final void cancel() {
+		timer.stop();
+		generation++;
+		if (crawl != null) {
+			crawl.cancelled = true;
+			crawl = null;
+		}
+		matches.clear();
+		scores.clear();
+		matched.clear();
+		current = -1;
+		lbStatus.setText(" ");
+	}
+
+	@Override
+	public final void actionPerformed(ActionEvent e) {
+		if (e.getSource() == timer || e.getSource() == cbCrawl) {
+			search();
+		} else if (e.getSource() == tfSearch) {
+			if (timer.isRunning()) {
+				timer.stop();
+				search();
+			} else if (matches.size() > 0) {
+				current = (current + 1) % matches.size();
+				select(matches.get(current));
+				updateStatus();
+			}
+		}
+	}
+
+	@Override
+	public final void insertUpdate(DocumentEvent e) {
+		timer.restart();
+	}
+
+	@Override
+	public final void removeUpdate(DocumentEvent e) {
+		timer.restart();
+	}
+
+	@Override
+	public final void changedUpdate(DocumentEvent e) {}
+
+	private final void search() {
+		cancel();
+		TreeModel tm = tree.getModel();
+		String query = tfSearch.getText().trim().toLowerCase();
+		if (query.length() == 0 || !(tm instanceof DirTreeModel)) {
+			return;
+		}
+		final DirTreeModel model = (DirTreeModel) tm;
+		DirTreeNode root = (DirTreeNode) model.getRoot();
+		Enumeration<?> e = root.breadthFirstEnumeration();
+		int score;
+		while (e.hasMoreElements()) {
+			Object o = e.nextElement();
+			if (o instanceof DirTreeNode && o != root) {
+				score = score(query, o.toString());
+				if (score >= 0) {
+					addMatch((DirTreeNode) o, score);
+				}
+			}
+		}
+		if (matches.size() > 0) {
+			current = 0;
+			select(matches.get(0));
+		}
+		if (cbCrawl.isSelected()) {
+			crawl = new Crawl(model, root, query, model.isShowHidden(), generation);
+			CRAWLER.execute(crawl);
+		}
+		updateStatus();
+	}
+
+	/**
+	 * Inserts a match ordered by score, after the matches with the same score.
+	 * Returns the position or -1 if the node matched already.
+	 */
+	private final int addMatch(DirTreeNode node, int score) {
+		if (!matched.add(node)) {
+			return -1;
+		}
+		int lo = 0;
+		int hi = scores.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (scores.get(mid) >= score) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		matches.add(lo, node);
+		scores.add(lo, score);
+		return lo;
+	}
+
+	/**
+	 * Adds a match found by the crawl. The selection moves to it if it is the
+	 * best match so far, unless the user already went on to another match.
+	 */
+	private final void addCrawled(DirTreeNode node, int score) {
+		int i = addMatch(node, score);
+		if (i < 0) {
+			return;
+		}
+		if (current < 0 || (current == 0 && i == 0)) {
+			current = 0;
+			select(node);
+		} else if (i <= current) {
+			current++;
+		}
+		updateStatus();
+	}
+
+	private final void select(DirTreeNode node) {
+		TreePath tp = new TreePath(node.getPath());
+		tree.setSelectionPath(tp);
+		tree.scrollPathToVisible(tp);
+	}
+
+	private final void updateStatus() {
+		String s = matches.size() == 0 ? "Keine Treffer" : (current + 1) + " / " + matches.size();
+		lbStatus.setText(crawl != null ? s + " ..." : s);
+	}
+
+	/**
+	 * Matches a query against a name, ignoring case.
+	 *
+	 * @param query
+	 *            The query in lower case.
+	 * @param name
+	 *            The name to match.
+	 * @return -1 if the characters of the query do not appear in the name in
+	 *         order, else a score that is higher for prefixes, then substrings,
+	 *         then matches with few gaps, and for shorter names.
+	 */
+	final static int score(String query, String name) {
+		String n = name.toLowerCase();
+		int i = n.indexOf(query);
+		int lengthPenalty = Math.min(n.length(), 999);
+		if (i == 0) {
+			return 3000000 - lengthPenalty;
+		} else if (i > 0) {
+			return 2000000 - Math.min(i, 999) * 1000 - lengthPenalty;
+		}
+		int q = 0;
+		int gaps = 0;
+		int last = -1;
+		for (int k = 0; k < n.length() && q < query.length(); k++) {
+			if (n.charAt(k) == query.charAt(q)) {
+				if (last >= 0 && k != last + 1) {
+					gaps++;
+				}
+				last = k;
+				q++;
+			}
+		}
+		if (q < query.length()) {
+			return -1;
+		}
+		return 1000000 - Math.min(gaps, 999) * 1000 - lengthPenalty;
+	}
+
+	/**
+	 * Crawls the directories below the root breadth first and inserts the matches
+	 * into the tree. Listings cached for the tree are used, other directories
+	 * are listed without caching and watching them, so the crawl does not evict
+	 * the listings of the tree. The ancestors of the matches are not listed
+	 * either, only the path to the match is inserted until they are expanded.
+	 */
+	private final class Crawl implements Runnable {
+		private final DirTreeModel model;
+		private final DirTreeNode root;
+		private final String query;
+		private final boolean showHidden;
+		private final int gen;
+		private volatile boolean cancelled;
+
+		private Crawl(DirTreeModel model, DirTreeNode root, String query, boolean showHidden, int gen) {
+			this.model = model;
+			this.root = root;
+			this.query = query;
+			this.showHidden = showHidden;
+			this.gen = gen;
+			cancelled = false;
+		}
+
+		@Override
+		public void run() {
+			DirListingCache cache = DirListingCache.getShared();
+			File dir;
+			ArrayDeque<String[]> queue = new ArrayDeque<String[]>();
+			File[] dirs;
+			String[] names;
+			String[] childNames;
+			int score;
+			int visited = 0;
+			int found = 0;
+			if (root.getFile() == null) {
+				// the virtual node of the file system roots
+				for (int i = 0; i < root.getChildCount(); i++) {
+					queue.add(new String[] { root.getChildAt(i).toString() });
+				}
+			} else {
+				queue.add(new String[0]);
+			}
+			while (!cancelled && !queue.isEmpty() && visited++ < MAX_DIRECTORIES && found < MAX_MATCHES) {
+				names = queue.poll();
+				dir = toFile(names);
+				dirs = cache.getIfPresent(dir);
+				if (dirs == null) {
+					dirs = dir.listFiles(new DirectoryFileFilter(showHidden));
+					if (dirs == null) {
+						continue;
+					}
+				} else {
+					dirs = DirListingCache.filter(dirs, showHidden);
+				}
+				for (int i = 0; i < dirs.length && !cancelled && found < MAX_MATCHES; i++) {
+					childNames = new String[names.length + 1];
+					System.arraycopy(names, 0, childNames, 0, names.length);
+					childNames[names.length] = dirs[i].getName();
+					score = score(query, childNames[names.length]);
+					if (score >= 0) {
+						publish(childNames, score);
+						found++;
+					}
+					if (childNames.length < MAX_DEPTH) {
+						queue.add(childNames);
+					}
+				}
+			}
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if (crawl == Crawl.this) {
+						crawl = null;
+						updateStatus();
+					}
+				}
+			});
+		}
+
+		private File toFile(String[] names) {
+			File f = root.getFile();
+			for (String name : names) {
+				f = f == null ? new File(name) : new File(f, name);
+			}
+			return f;
+		}
+
+		private void publish(final String[] names, final int score) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if (gen != generation || tree.getModel() != model) {
+						return;
+					}
+					model.resolve(root, names, false, new DirTreePathListener() {
+						@Override
+						public void resolved(DirTreeNode node) {
+							// the path may have vanished meanwhile
+							if (gen == generation && node.getLevel() - root.getLevel() == names.length) {
+								addCrawled(node, score);
+							}
+						}
+					});
+				}
+			});
+		}
+	}
+}
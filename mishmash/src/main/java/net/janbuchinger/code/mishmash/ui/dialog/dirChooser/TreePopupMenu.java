@@ -53,7 +53,7 @@ public final class TreePopupMenu extends JPopupMenu implements ActionListener {
 			} else {
 				miShowHiddenFolders.setText("Versteckte Ordner Anzeigen");
 			}
-			dcd.reload();
+			dcd.showHiddenFoldersChanged();
 		}
 	}
 
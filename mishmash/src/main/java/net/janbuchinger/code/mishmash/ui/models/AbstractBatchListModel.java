@@ -0,0 +1,590 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+
+/**
+ * <code>AbstractBatchListModel</code> is the base of the list models of this
+ * package that modify their data in place. Every modification fires an event
+ * for exactly the rows it affects, so a <code>JList</code> only updates these
+ * rows.
+ * <p>
+ * Modifications between <code>beginUpdate()</code> and
+ * <code>endUpdate()</code> are combined into a single event, fired by
+ * <code>endUpdate()</code>. Modifications of one contiguous range, like adding
+ * rows one after another, result in a precise event. Otherwise the rows from
+ * the first modified one on are changed or, if the size changed, removed and
+ * inserted again, so a <code>JList</code> does not keep removed rows selected.
+ * <p>
+ * The elements are stored in an unsynchronized <code>ArrayList</code>, the
+ * model must only be used on the event dispatch thread. With assertions
+ * enabled (<code>-ea</code>) modifications from other threads fail. Background
+ * loaders hand their results over by <code>publish</code>, which appends, or
+ * <code>publishData</code>, which replaces the elements.
+ * <p>
+ * The model copies the lists it is given and does not hand out a modifiable
+ * list, so elements are only added, replaced and removed through the model.
+ *
+ * @author Jan Buchinger
+ *
+ * @param <E>
+ *            The type of the elements.
+ */
+@SuppressWarnings("serial")
+public abstract class AbstractBatchListModel<E> extends AbstractListModel<E> {
+	private final static int NONE = 0;
+	private final static int ADDED = 1;
+	private final static int REMOVED = 2;
+	private final static int CHANGED = 3;
+	private final static int ALL = 4;
+	/**
+	 * Removals of more separate runs remove the whole span and insert the
+	 * remaining elements again.
+	 */
+	private final static int MAX_RUNS = 64;
+
+	private ArrayList<E> data;
+
+	private int batch;
+	private int pending;
+	private int pending0, pending1;
+	private int batchSize;
+	private int batchMin;
+
+	/**
+	 * Constructs an <code>AbstractBatchListModel</code> with the supplied data.
+	 *
+	 * @param data
+	 *            The elements to initiate this model with, they are copied, or
+	 *            <code>null</code> for an empty list.
+	 */
+	protected AbstractBatchListModel(Collection<? extends E> data) {
+		if (data != null)
+			this.data = new ArrayList<E>(data);
+		else
+			this.data = new ArrayList<E>();
+		batch = 0;
+		pending = NONE;
+	}
+
+	@Override
+	public int getSize() {
+		return data.size();
+	}
+
+	@Override
+	public E getElementAt(int index) {
+		return data.get(index);
+	}
+
+	/**
+	 * Gets a read only view of the elements.
+	 *
+	 * @return The elements of this model, the view reflects later
+	 *         modifications.
+	 */
+	public final List<E> asList() {
+		return Collections.unmodifiableList(data);
+	}
+
+	/**
+	 * Sets the current data <code>List</code>.
+	 *
+	 * @param data
+	 *            The current data <code>List</code> to set. It is copied, later
+	 *            modifications of it do not show in the model.
+	 */
+	public final void setData(Vector<E> data) {
+		setData((Collection<E>) data);
+	}
+
+	/**
+	 * Replaces the elements.
+	 *
+	 * @param data
+	 *            The new elements, they are copied.
+	 */
+	public final void setData(Collection<? extends E> data) {
+		checkThread();
+		int oldSize = getSize();
+		this.data = data != null ? new ArrayList<E>(data) : new ArrayList<E>();
+		elementsMoved();
+		changedAll(oldSize);
+	}
+
+	/**
+	 * Appends elements on the event dispatch thread. It can be called from any
+	 * thread, the elements are copied on the calling thread, so a loader can
+	 * reuse its list afterwards.
+	 *
+	 * @param elements
+	 *            The elements to append.
+	 */
+	public final void publish(Collection<? extends E> elements) {
+		final ArrayList<E> copy = new ArrayList<E>(elements);
+		if (SwingUtilities.isEventDispatchThread()) {
+			addAll(copy);
+		} else {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					addAll(copy);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Replaces the elements on the event dispatch thread. It can be called from
+	 * any thread, the elements are copied on the calling thread.
+	 *
+	 * @param data
+	 *            The new elements.
+	 */
+	public final void publishData(Collection<? extends E> data) {
+		final ArrayList<E> copy = new ArrayList<E>(data);
+		if (SwingUtilities.isEventDispatchThread()) {
+			setData(copy);
+		} else {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					setData(copy);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Notifies the listeners that any element may have changed, for example
+	 * after modifying the elements themselves. The list of elements can only be
+	 * modified by the methods of the model.
+	 */
+	public final void refresh() {
+		changedAll(getSize());
+	}
+
+	/**
+	 * Starts a batch of modifications. Batches may be nested, the event is
+	 * fired by the outermost <code>endUpdate()</code>.
+	 */
+	public final void beginUpdate() {
+		if (batch++ == 0) {
+			pending = NONE;
+			batchSize = getSize();
+			batchMin = Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Ends a batch of modifications and fires one event for all of them if this
+	 * is the outermost batch.
+	 *
+	 * @throws IllegalStateException
+	 *             If no batch was started.
+	 */
+	public final void endUpdate() {
+		if (batch == 0) {
+			throw new IllegalStateException("endUpdate() without beginUpdate()");
+		}
+		if (--batch == 0) {
+			int type = pending;
+			pending = NONE;
+			switch (type) {
+			case ADDED:
+				fireIntervalAdded(this, pending0, pending1);
+				break;
+			case REMOVED:
+				fireIntervalRemoved(this, pending0, pending1);
+				break;
+			case CHANGED:
+				fireContentsChanged(this, pending0, pending1);
+				break;
+			case ALL:
+				int size = getSize();
+				if (size == batchSize) {
+					if (batchMin < size) {
+						fireContentsChanged(this, batchMin, size - 1);
+					}
+				} else {
+					if (batchMin < batchSize) {
+						fireIntervalRemoved(this, batchMin, batchSize - 1);
+					}
+					if (batchMin < size) {
+						fireIntervalAdded(this, batchMin, size - 1);
+					}
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Appends an element.
+	 *
+	 * @param element
+	 *            The element to append.
+	 */
+	public final void addElement(E element) {
+		checkThread();
+		data.add(element);
+		elementsInserted(data.size() - 1, data.size() - 1);
+		added(data.size() - 1, data.size() - 1);
+	}
+
+	/**
+	 * Inserts an element.
+	 *
+	 * @param element
+	 *            The element to insert.
+	 * @param index
+	 *            The index to insert the element at.
+	 */
+	public final void insertElementAt(E element, int index) {
+		checkThread();
+		data.add(index, element);
+		elementsInserted(index, index);
+		added(index, index);
+	}
+
+	/**
+	 * Appends several elements with one event.
+	 *
+	 * @param elements
+	 *            The elements to append.
+	 */
+	public final void addAll(Collection<? extends E> elements) {
+		addAll(data.size(), elements);
+	}
+
+	/**
+	 * Inserts several elements with one event.
+	 *
+	 * @param index
+	 *            The index to insert the first element at.
+	 * @param elements
+	 *            The elements to insert.
+	 */
+	public final void addAll(int index, Collection<? extends E> elements) {
+		checkThread();
+		int n = elements.size();
+		if (data.addAll(index, elements) && n > 0) {
+			elementsInserted(index, index + n - 1);
+			added(index, index + n - 1);
+		}
+	}
+
+	/**
+	 * Replaces an element.
+	 *
+	 * @param element
+	 *            The new element.
+	 * @param index
+	 *            The index of the element to replace.
+	 * @return The replaced element.
+	 */
+	public final E setElementAt(E element, int index) {
+		checkThread();
+		E old = data.set(index, element);
+		elementReplaced(index, old);
+		changed(index, index);
+		return old;
+	}
+
+	/**
+	 * Removes the element at the specified index.
+	 *
+	 * @param index
+	 *            The requested index.
+	 */
+	public void removeElementAt(int index) {
+		checkThread();
+		E old = data.remove(index);
+		elementsRemoved(index, Collections.singletonList(old));
+		removed(index, index);
+	}
+
+	/**
+	 * Removes a range of elements with one event.
+	 *
+	 * @param fromIndex
+	 *            The index of the first element to remove.
+	 * @param toIndex
+	 *            The index of the last element to remove.
+	 */
+	public final void removeRange(int fromIndex, int toIndex) {
+		if (fromIndex > toIndex) {
+			throw new IllegalArgumentException("fromIndex must be <= toIndex");
+		}
+		checkThread();
+		List<E> range = data.subList(fromIndex, toIndex + 1);
+		List<E> old = new ArrayList<E>(range);
+		range.clear();
+		elementsRemoved(fromIndex, old);
+		removed(fromIndex, toIndex);
+	}
+
+	/**
+	 * Removes the elements at several indices, like the selected indices of a
+	 * <code>JList</code>. The runs of adjacent indices are removed one after
+	 * another, the last run first, each with its own event, so the selection of
+	 * a <code>JList</code> moves along. With more than 64 runs the span from the
+	 * first to the last index is removed and its remaining elements are
+	 * inserted again, with two events.
+	 *
+	 * @param indices
+	 *            The indices of the elements to remove, in any order.
+	 */
+	public final void removeElementsAt(int[] indices) {
+		if (indices.length == 0) {
+			return;
+		}
+		checkThread();
+		int[] sorted = indices.clone();
+		Arrays.sort(sorted);
+		int oldSize = data.size();
+		if (sorted[0] < 0 || sorted[sorted.length - 1] >= oldSize) {
+			throw new IndexOutOfBoundsException("Index out of range: "
+					+ (sorted[0] < 0 ? sorted[0] : sorted[sorted.length - 1]));
+		}
+		int runs = 1;
+		for (int i = 1; i < sorted.length; i++) {
+			if (sorted[i] > sorted[i - 1] + 1) {
+				runs++;
+			}
+		}
+		if (runs > MAX_RUNS) {
+			removeSpan(sorted);
+			return;
+		}
+		// the last run first, so the indices of the others stay valid
+		int last = sorted[sorted.length - 1];
+		for (int i = sorted.length - 1; i > 0; i--) {
+			if (sorted[i - 1] < sorted[i] - 1) {
+				removeRun(sorted[i], last);
+				last = sorted[i - 1];
+			}
+		}
+		removeRun(sorted[0], last);
+	}
+
+	private final void removeRun(int index0, int index1) {
+		List<E> range = data.subList(index0, index1 + 1);
+		List<E> old = new ArrayList<E>(range);
+		range.clear();
+		elementsRemoved(index0, old);
+		removed(index0, index1);
+	}
+
+	/**
+	 * Removes the span from the first to the last of the sorted indices and
+	 * inserts the elements of the span that are not removed again.
+	 */
+	private final void removeSpan(int[] sorted) {
+		int first = sorted[0];
+		int last = sorted[sorted.length - 1];
+		List<E> range = data.subList(first, last + 1);
+		List<E> old = new ArrayList<E>(range);
+		ArrayList<E> rest = new ArrayList<E>();
+		int k = 0;
+		for (int r = first; r <= last; r++) {
+			if (sorted[k] == r) {
+				// skips duplicates too
+				while (k < sorted.length && sorted[k] == r) {
+					k++;
+				}
+			} else {
+				rest.add(old.get(r - first));
+			}
+		}
+		range.clear();
+		elementsRemoved(first, old);
+		removed(first, last);
+		if (rest.size() > 0) {
+			data.addAll(first, rest);
+			elementsInserted(first, first + rest.size() - 1);
+			added(first, first + rest.size() - 1);
+		}
+	}
+
+	/**
+	 * Removes all elements.
+	 */
+	public final void clear() {
+		checkThread();
+		int n = data.size();
+		if (n > 0) {
+			data.clear();
+			elementsMoved();
+			removed(0, n - 1);
+		}
+	}
+
+	/**
+	 * Called after elements were inserted, before the listeners are notified.
+	 * Subclasses override it to maintain an index of the elements.
+	 *
+	 * @param index0
+	 *            The index of the first inserted element.
+	 * @param index1
+	 *            The index of the last inserted element.
+	 */
+	protected void elementsInserted(int index0, int index1) {
+	}
+
+	/**
+	 * Called after an element was replaced, before the listeners are notified.
+	 *
+	 * @param index
+	 *            The index of the element.
+	 * @param old
+	 *            The replaced element.
+	 */
+	protected void elementReplaced(int index, E old) {
+	}
+
+	/**
+	 * Called after a range of elements was removed, before the listeners are
+	 * notified.
+	 *
+	 * @param index0
+	 *            The index the first removed element had.
+	 * @param removed
+	 *            The removed elements.
+	 */
+	protected void elementsRemoved(int index0, List<E> removed) {
+	}
+
+	/**
+	 * Called after all elements were replaced or removed, before the listeners
+	 * are notified. Any element may have moved.
+	 */
+	protected void elementsMoved() {
+	}
+
+	/**
+	 * Notifies the listeners or the running batch that elements were inserted.
+	 *
+	 * @param index0
+	 *            The index of the first inserted element.
+	 * @param index1
+	 *            The index of the last inserted element.
+	 */
+	protected final void added(int index0, int index1) {
+		batchMin = Math.min(batchMin, index0);
+		if (batch == 0) {
+			fireIntervalAdded(this, index0, index1);
+		} else if (pending == NONE) {
+			setPending(ADDED, index0, index1);
+		} else if (pending == ADDED && index0 >= pending0 && index0 <= pending1 + 1) {
+			pending1 += index1 - index0 + 1;
+		} else {
+			pending = ALL;
+		}
+	}
+
+	/**
+	 * Notifies the listeners or the running batch that elements were removed.
+	 *
+	 * @param index0
+	 *            The index the first removed element had.
+	 * @param index1
+	 *            The index the last removed element had.
+	 */
+	protected final void removed(int index0, int index1) {
+		batchMin = Math.min(batchMin, index0);
+		if (batch == 0) {
+			fireIntervalRemoved(this, index0, index1);
+		} else if (pending == NONE) {
+			setPending(REMOVED, index0, index1);
+		} else if (pending == REMOVED && index0 == pending0) {
+			// the elements following the removed ones
+			pending1 += index1 - index0 + 1;
+		} else if (pending == REMOVED && index1 + 1 == pending0) {
+			// the elements preceding the removed ones
+			pending0 = index0;
+		} else {
+			pending = ALL;
+		}
+	}
+
+	/**
+	 * Notifies the listeners or the running batch that elements were replaced.
+	 * Within a batch, changes of separate ranges are combined into one range
+	 * enclosing them.
+	 *
+	 * @param index0
+	 *            The index of the first replaced element.
+	 * @param index1
+	 *            The index of the last replaced element.
+	 */
+	protected final void changed(int index0, int index1) {
+		batchMin = Math.min(batchMin, index0);
+		if (batch == 0) {
+			fireContentsChanged(this, index0, index1);
+		} else if (pending == NONE) {
+			setPending(CHANGED, index0, index1);
+		} else if (pending == CHANGED) {
+			pending0 = Math.min(pending0, index0);
+			pending1 = Math.max(pending1, index1);
+		} else {
+			pending = ALL;
+		}
+	}
+
+	/**
+	 * Notifies the listeners or the running batch that any element may have
+	 * changed.
+	 *
+	 * @param oldSize
+	 *            The size before the change.
+	 */
+	protected final void changedAll(int oldSize) {
+		if (batch == 0) {
+			int n = Math.max(oldSize, getSize());
+			if (n > 0) {
+				fireContentsChanged(this, 0, n - 1);
+			}
+		} else {
+			pending = ALL;
+			batchMin = 0;
+		}
+	}
+
+	/**
+	 * Fails if assertions are enabled and the calling thread is not the event
+	 * dispatch thread.
+	 */
+	protected final void checkThread() {
+		assert SwingUtilities.isEventDispatchThread() : getClass().getSimpleName()
+				+ " modified outside of the event dispatch thread";
+	}
+
+	private final void setPending(int type, int index0, int index1) {
+		pending = type;
+		pending0 = index0;
+		pending1 = index1;
+	}
+}
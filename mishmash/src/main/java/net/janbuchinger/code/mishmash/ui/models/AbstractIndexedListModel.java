@@ -0,0 +1,400 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui.models;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <code>AbstractIndexedListModel</code> is an
+ * <code>AbstractBatchListModel</code> that finds its elements by a primitive
+ * key, like the id of a database object, in constant time.
+ * <p>
+ * The model keeps a hash table from the keys to the indices of the elements,
+ * which is updated in place. Removed elements leave gaps that lookups count
+ * by a binary search, until so many gaps are collected that one pass over the
+ * table closes them. Inserting elements in front of others moves the indices
+ * behind them, which costs a pass over the smaller of the table and the moved
+ * elements. Appending and replacing elements costs constant time.
+ * <code>setData</code> and <code>clear</code> invalidate the table and the
+ * next lookup builds it again.
+ * <p>
+ * If several elements have the same key, the lookup finds the first one. Once
+ * a key is duplicated, removals invalidate the table too.
+ *
+ * @author Jan Buchinger
+ *
+ * @param <E>
+ *            The type of the elements.
+ */
+@SuppressWarnings("serial")
+public abstract class AbstractIndexedListModel<E> extends AbstractBatchListModel<E> {
+	private final KeyTable table;
+	private boolean valid;
+	private boolean duplicates;
+	/**
+	 * The sorted slots of removed elements. The table maps a key to a slot, the
+	 * index of the element is the slot minus the number of gaps before it.
+	 */
+	private int[] gaps;
+	private int nGaps;
+
+	/**
+	 * Constructs an <code>AbstractIndexedListModel</code> with the supplied data.
+	 *
+	 * @param data
+	 *            The elements to initiate this model with, they are copied, or
+	 *            <code>null</code> for an empty list.
+	 */
+	protected AbstractIndexedListModel(Collection<? extends E> data) {
+		super(data);
+		table = new KeyTable();
+		gaps = new int[16];
+		nGaps = 0;
+		valid = false;
+	}
+
+	/**
+	 * Gets the key of an element.
+	 *
+	 * @param element
+	 *            The element.
+	 * @return The key the element is found by.
+	 */
+	protected abstract long keyOf(E element);
+
+	/**
+	 * Finds the first element with a key.
+	 *
+	 * @param key
+	 *            The key to search for.
+	 * @return The index of the element or -1 if there is no element with the
+	 *         key.
+	 */
+	protected final int indexOfKey(long key) {
+		if (!valid) {
+			build();
+		}
+		int slot = table.get(key);
+		return slot < 0 ? -1 : slot - gapsBefore(slot);
+	}
+
+	@Override
+	protected void elementsInserted(int index0, int index1) {
+		if (!valid) {
+			return;
+		}
+		if (index1 != getSize() - 1) {
+			compact();
+			moveIndices(index1 + 1, index1 - index0 + 1);
+		}
+		// appended elements get slots behind all gaps
+		for (int i = index0; i <= index1; i++) {
+			add(keyOf(getElementAt(i)), i + nGaps);
+		}
+	}
+
+	@Override
+	protected void elementReplaced(int index, E old) {
+		if (!valid) {
+			return;
+		}
+		long oldKey = keyOf(old);
+		long key = keyOf(getElementAt(index));
+		if (oldKey == key) {
+			return;
+		}
+		if (duplicates) {
+			valid = false;
+			return;
+		}
+		int slot = table.get(oldKey);
+		table.remove(oldKey);
+		add(key, slot);
+	}
+
+	@Override
+	protected void elementsRemoved(int index0, List<E> removed) {
+		if (!valid) {
+			return;
+		}
+		if (duplicates) {
+			valid = false;
+			return;
+		}
+		long key;
+		for (int i = 0; i < removed.size(); i++) {
+			key = keyOf(removed.get(i));
+			addGap(table.get(key));
+			table.remove(key);
+		}
+		if (nGaps > Math.max(64, table.capacity() >> 6)) {
+			compact();
+		}
+	}
+
+	@Override
+	protected void elementsMoved() {
+		valid = false;
+	}
+
+	/**
+	 * Indexes an element, the element with the lowest slot is found.
+	 */
+	private final void add(long key, int slot) {
+		int s = table.get(key);
+		if (s < 0) {
+			table.put(key, slot);
+		} else {
+			duplicates = true;
+			if (slot < s) {
+				table.put(key, slot);
+			}
+		}
+	}
+
+	private final int gapsBefore(int slot) {
+		int lo = 0;
+		int hi = nGaps;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (gaps[mid] < slot) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private final void addGap(int slot) {
+		if (nGaps == gaps.length) {
+			gaps = Arrays.copyOf(gaps, nGaps * 2);
+		}
+		int pos = gapsBefore(slot);
+		System.arraycopy(gaps, pos, gaps, pos + 1, nGaps - pos);
+		gaps[pos] = slot;
+		nGaps++;
+	}
+
+	/**
+	 * Turns all slots into indices in one pass over the table, so the gaps are
+	 * not searched by every lookup.
+	 */
+	private final void compact() {
+		if (nGaps > 0) {
+			table.subtractGaps(gaps, nGaps);
+			nGaps = 0;
+		}
+	}
+
+	/**
+	 * Adds delta to the indices of the elements from an index on, after
+	 * elements were inserted before them. Either these elements are looked up
+	 * or all values of the table are adjusted, whatever is cheaper.
+	 */
+	private final void moveIndices(int from, int delta) {
+		int size = getSize();
+		if ((size - from) * 16L < table.capacity()) {
+			// from the end, so no moved index equals the old index of an element
+			// that is not moved yet
+			for (int i = size - 1; i >= from; i--) {
+				table.replace(keyOf(getElementAt(i)), i - delta, i);
+			}
+		} else {
+			table.addToValues(from - delta, delta);
+		}
+	}
+
+	private final void build() {
+		List<E> data = asList();
+		table.clear(data.size());
+		nGaps = 0;
+		duplicates = false;
+		for (int i = 0; i < data.size(); i++) {
+			add(keyOf(data.get(i)), i);
+		}
+		valid = true;
+	}
+
+	/**
+	 * An open addressing hash table from <code>long</code> keys to
+	 * non-negative <code>int</code> values with linear probing.
+	 */
+	private final static class KeyTable {
+		private long[] keys;
+		// the value + 1, 0 for an empty slot
+		private int[] values;
+		private int size;
+		private int mask;
+
+		private KeyTable() {
+			clear(0);
+		}
+
+		private void clear(int expected) {
+			int capacity = 16;
+			while (capacity < expected * 2) {
+				capacity <<= 1;
+			}
+			if (keys == null || keys.length != capacity) {
+				keys = new long[capacity];
+				values = new int[capacity];
+			} else {
+				Arrays.fill(values, 0);
+			}
+			mask = capacity - 1;
+			size = 0;
+		}
+
+		private int slot(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32)) & mask;
+		}
+
+		private int get(long key) {
+			int i = slot(key);
+			while (values[i] != 0) {
+				if (keys[i] == key) {
+					return values[i] - 1;
+				}
+				i = (i + 1) & mask;
+			}
+			return -1;
+		}
+
+		private int capacity() {
+			return keys.length;
+		}
+
+		private void put(long key, int value) {
+			int i = slot(key);
+			while (values[i] != 0) {
+				if (keys[i] == key) {
+					values[i] = value + 1;
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			values[i] = value + 1;
+			if (++size * 2 > keys.length) {
+				grow();
+			}
+		}
+
+		/**
+		 * Sets the value of a key only if it has an expected value.
+		 */
+		private void replace(long key, int expected, int value) {
+			int i = slot(key);
+			while (values[i] != 0) {
+				if (keys[i] == key) {
+					if (values[i] == expected + 1) {
+						values[i] = value + 1;
+					}
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+		}
+
+		/**
+		 * Removes a key and moves the following keys of its probe sequence back,
+		 * so no lookup stops at the emptied slot.
+		 */
+		private void remove(long key) {
+			int i = slot(key);
+			while (values[i] != 0 && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			if (values[i] == 0) {
+				return;
+			}
+			size--;
+			int j = i;
+			int home;
+			while (true) {
+				values[i] = 0;
+				do {
+					j = (j + 1) & mask;
+					if (values[j] == 0) {
+						return;
+					}
+					home = slot(keys[j]);
+					// the key at j stays if its home lies cyclically in (i, j]
+				} while (i <= j ? (i < home && home <= j) : (i < home || home <= j));
+				keys[i] = keys[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+
+		/**
+		 * Subtracts from every value the number of gaps before it.
+		 */
+		private void subtractGaps(int[] gaps, int nGaps) {
+			int v, lo, hi, mid;
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] != 0) {
+					v = values[i] - 1;
+					lo = 0;
+					hi = nGaps;
+					while (lo < hi) {
+						mid = (lo + hi) >>> 1;
+						if (gaps[mid] < v) {
+							lo = mid + 1;
+						} else {
+							hi = mid;
+						}
+					}
+					values[i] -= lo;
+				}
+			}
+		}
+
+		/**
+		 * Adds delta to all values from a value on, values are stored + 1.
+		 */
+		private void addToValues(int from, int delta) {
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] > from) {
+					values[i] += delta;
+				}
+			}
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new long[oldKeys.length * 2];
+			values = new int[oldValues.length * 2];
+			mask = keys.length - 1;
+			int j;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldValues[i] != 0) {
+					j = slot(oldKeys[i]);
+					while (values[j] != 0) {
+						j = (j + 1) & mask;
+					}
+					keys[j] = oldKeys[i];
+					values[j] = oldValues[i];
+				}
+			}
+		}
+	}
+}
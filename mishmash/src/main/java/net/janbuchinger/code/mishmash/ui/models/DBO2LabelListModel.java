@@ -17,96 +17,68 @@ package net.janbuchinger.code.mishmash.ui.models;
 
 import java.util.Vector;
 
-import javax.swing.AbstractListModel;
-
 import net.janbuchinger.code.mishmash.dbo.DBO2Label;
 
 
 /**
  * <code>DBO2LabelListModel</code> is a <code>ListModel</code> for
  * <code>JList&lt;DBO2Label&gt;</code>
+ * <p>
+ * Modifications fire events for the affected rows only and can be combined
+ * into one event by <code>beginUpdate()</code> and <code>endUpdate()</code>.
+ * <code>indexOfId</code> finds an element by its id without searching.
  * 
  * @author Jan Buchinger
  * 
  * @see DBO2Label
+ * @see AbstractIndexedListModel
  */
 @SuppressWarnings("serial")
-public class DBO2LabelListModel extends AbstractListModel<DBO2Label> {
-
-	private Vector<DBO2Label> data;
+public class DBO2LabelListModel extends AbstractIndexedListModel<DBO2Label> {
 
 	/**
 	 * Constructs a <code>DBO2LabelListModel</code> with an empty data
 	 * <code>List</code>.
 	 */
 	public DBO2LabelListModel() {
-		data = new Vector<DBO2Label>();
+		super(null);
 	}
 
 	/**
-	 * 
 	 * Constructs a <code>DBO2LabelListModel</code> with the supplied data.
 	 * 
 	 * @param data
 	 *            The <code>List</code> to initiate this
-	 *            <code>DBO2LabelListModel</code> with.
+	 *            <code>DBO2LabelListModel</code> with. It is copied, later
+	 *            modifications of it do not show in the model.
 	 */
 	public DBO2LabelListModel(Vector<DBO2Label> data) {
-		if (data != null)
-			this.data = data;
-		else
-			this.data = new Vector<DBO2Label>();
-
-	}
-
-	@Override
-	public int getSize() {
-		return data.size();
-	}
-
-	@Override
-	public DBO2Label getElementAt(int index) {
-		return data.get(index);
+		super(data);
 	}
 
 	/**
-	 * Gets the current data <code>List</code>.
+	 * Finds a <code>DBO2Label</code> by its pair of ids in constant time.
 	 * 
-	 * @return The current data <code>List</code>.
-	 * @see #refresh()
+	 * @param id1
+	 *            The first id of the <code>DBO2Label</code>.
+	 * @param id2
+	 *            The second id of the <code>DBO2Label</code>.
+	 * @return The index of the first <code>DBO2Label</code> with the ids or -1
+	 *         if there is none.
 	 */
-	public final Vector<DBO2Label> getData() {
-		return data;
+	public final int indexOfId(int id1, int id2) {
+		return indexOfKey(key(id1, id2));
 	}
 
-	/**
-	 * Sets the current data <code>List</code>.
-	 * 
-	 * @param data
-	 *            The current data <code>List</code> to set.
-	 */
-	public final void setData(Vector<DBO2Label> data) {
-		this.data = data;
-		refresh();
+	@Override
+	protected long keyOf(DBO2Label element) {
+		return key(element.getId(), element.getId2());
 	}
 
 	/**
-	 * Removes the element at the specified index.
-	 * 
-	 * @param index
-	 *            The requested index.
-	 */
-	public void removeElementAt(int index) {
-		data.remove(index);
-		refresh();
-	}
-	
-	/**
-	 * should be called after altering the data object externally.
-	 * 
-	 * @see #getData()
+	 * Packs both ids into one key.
 	 */
-	public final void refresh() {
-		fireContentsChanged(this, 0, getSize() - 1);
+	private final static long key(int id1, int id2) {
+		return ((long) id1 << 32) | (id2 & 0xFFFFFFFFL);
 	}
 }
@@ -17,30 +17,31 @@ package net.janbuchinger.code.mishmash.ui.models;
 
 import java.util.Vector;
 
-import javax.swing.AbstractListModel;
-
 import net.janbuchinger.code.mishmash.dbo.DBOLabel;
 
 
 /**
  * <code>DBOLabelListModel</code> is a <code>ListModel</code> for
  * <code>JList&lt;DBOLabel&gt;</code>
+ * <p>
+ * Modifications fire events for the affected rows only and can be combined
+ * into one event by <code>beginUpdate()</code> and <code>endUpdate()</code>.
+ * <code>indexOfId</code> finds an element by its id without searching.
  * 
  * @author Jan Buchinger
  * 
  * @see net.janbuchinger.code.mishmash.dbo.DBOLabel
+ * @see AbstractIndexedListModel
  */
 @SuppressWarnings("serial")
-public class DBOLabelListModel extends AbstractListModel<DBOLabel> {
-
-	private Vector<DBOLabel> data;
+public class DBOLabelListModel extends AbstractIndexedListModel<DBOLabel> {
 
 	/**
 	 * Constructs a <code>DBOLabelListModel</code> with an empty data
 	 * <code>List</code>.
 	 */
 	public DBOLabelListModel() {
-		data = new Vector<DBOLabel>();
+		super(null);
 	}
 
 	/**
@@ -48,54 +49,27 @@ public class DBOLabelListModel extends AbstractListModel<DBOLabel> {
 	 * 
 	 * @param data
 	 *            The <code>List</code> to initiate this
-	 *            <code>DBOLabelListModel</code> with.
+	 *            <code>DBOLabelListModel</code> with. It is copied, later
+	 *            modifications of it do not show in the model.
 	 */
 	public DBOLabelListModel(Vector<DBOLabel> data) {
-		if (data != null)
-			this.data = data;
-		else
-			this.data = new Vector<DBOLabel>();
-
-	}
-
-	@Override
-	public int getSize() {
-		return data.size();
-	}
-
-	@Override
-	public DBOLabel getElementAt(int index) {
-		return data.get(index);
+		super(data);
 	}
 
 	/**
-	 * Gets the current data <code>List</code>.
+	 * Finds a <code>DBOLabel</code> by its id in constant time.
 	 * 
-	 * @return The current data <code>List</code>.
+	 * @param id
+	 *            The id of the <code>DBOLabel</code>.
+	 * @return The index of the first <code>DBOLabel</code> with the id or -1 if
+	 *         there is none.
 	 */
-	public final Vector<DBOLabel> getData() {
-		return data;
+	public final int indexOfId(int id) {
+		return indexOfKey(id);
 	}
 
-	/**
-	 * Sets the current data <code>List</code>.
-	 * 
-	 * @param data
-	 *            The current data <code>List</code> to set.
-	 */
-	public final void setData(Vector<DBOLabel> data) {
-		this.data = data;
-		fireContentsChanged(this, 0, getSize() - 1);
-	}
-
-	/**
-	 * Removes the specified index from the model.
-	 * 
-	 * @param index
-	 *            The requested index.
-	 */
-	public void removeElementAt(int index) {
-		data.remove(index);
-		fireContentsChanged(this, 0, getSize() - 1);
+	@Override
+	protected long keyOf(DBOLabel element) {
+		return element.getId();
 	}
 }
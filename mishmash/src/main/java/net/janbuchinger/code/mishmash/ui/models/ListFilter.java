@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui.models;
+
+/**
+ * A <code>ListFilter</code> decides which elements a
+ * <code>SortedFilteredListModel</code> shows.
+ *
+ * @author Jan Buchinger
+ *
+ * @param <E>
+ *            The type of the elements.
+ *
+ * @see SortedFilteredListModel
+ */
+public interface ListFilter<E> {
+	/**
+	 * Tests an element.
+	 *
+	 * @param element
+	 *            The element to test.
+	 * @return true if the element is shown.
+	 */
+	public boolean accept(E element);
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui.models;
+
+import java.util.List;
+
+/**
+ * A <code>PageLoader</code> fetches the rows of a <code>PagedListModel</code>
+ * from its source, for example by a query with <code>LIMIT</code> and
+ * <code>OFFSET</code>.
+ * <p>
+ * <code>loadPage</code> is called on a background thread shared by all
+ * <code>PagedListModel</code>s, one page at a time, so a loader may use a
+ * single database connection.
+ *
+ * @author Jan Buchinger
+ *
+ * @param <E>
+ *            The type of the rows.
+ *
+ * @see PagedListModel
+ */
+public interface PageLoader<E> {
+	/**
+	 * Loads a range of rows.
+	 *
+	 * @param offset
+	 *            The index of the first row.
+	 * @param length
+	 *            The number of rows to load.
+	 * @return The rows, at most <code>length</code>. Missing rows are displayed
+	 *         as the placeholder. <code>null</code> counts as a failure.
+	 * @throws Exception
+	 *             If the rows cannot be loaded. The page is requested again
+	 *             after a delay that doubles with every failure, as long as it
+	 *             is displayed.
+	 */
+	public List<E> loadPage(int offset, int length) throws Exception;
+}
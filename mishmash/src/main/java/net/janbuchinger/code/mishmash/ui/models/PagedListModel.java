@@ -0,0 +1,267 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui.models;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * <code>PagedListModel</code> is a <code>ListModel</code> for lists that are
+ * too large to be loaded at once, like the <code>DBOLabel</code>s of a large
+ * table. Only the number of rows is known up front.
+ * <p>
+ * The rows are loaded in pages by a <code>PageLoader</code> on a background
+ * thread when <code>JList</code> asks for them. Meanwhile a placeholder is
+ * displayed. The least recently displayed pages are evicted beyond a maximum
+ * number of pages, so the memory is bounded by the page size times the
+ * maximum number of pages. Pages that were scrolled far away before their turn
+ * to be loaded are skipped. A page that fails to load is requested again after
+ * a delay that doubles with every failure, as long as it is displayed.
+ * <p>
+ * <code>JList</code> asks for every row to compute the row heights unless
+ * <code>setFixedCellHeight</code> or <code>setPrototypeCellValue</code> is
+ * used, which should be done with this model.
+ * <p>
+ * The model must only be used on the event dispatch thread.
+ *
+ * @author Jan Buchinger
+ *
+ * @param <E>
+ *            The type of the rows.
+ *
+ * @see PageLoader
+ */
+@SuppressWarnings("serial")
+public class PagedListModel<E> extends AbstractListModel<E> {
+	private final static ExecutorService LOADER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PagedListModel");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	/**
+	 * The delay before a page is requested again after its first failure, in
+	 * milliseconds. It doubles with every further failure up to
+	 * <code>MAX_RETRY_DELAY</code>.
+	 */
+	private final static int RETRY_DELAY = 500;
+	private final static int MAX_RETRY_DELAY = 30000;
+
+	private final PageLoader<E> loader;
+	private final int pageSize;
+	private final int maxPages;
+	private final E placeholder;
+	private final LinkedHashMap<Integer, List<E>> pages;
+	private final HashSet<Integer> loading;
+	private final HashMap<Integer, Integer> failures;
+
+	private int count;
+	private volatile int lastMissed;
+	private volatile int generation;
+
+	/**
+	 * Constructs a new <code>PagedListModel</code>.
+	 *
+	 * @param loader
+	 *            The loader of the pages.
+	 * @param count
+	 *            The total number of rows.
+	 * @param pageSize
+	 *            The number of rows per page.
+	 * @param maxPages
+	 *            The number of pages kept in memory. It must be larger than the
+	 *            number of pages visible at once.
+	 * @param placeholder
+	 *            The element displayed while a row is loading.
+	 */
+	public PagedListModel(PageLoader<E> loader, int count, int pageSize, int maxPages, E placeholder) {
+		if (pageSize < 1 || maxPages < 1) {
+			throw new IllegalArgumentException("pageSize and maxPages must be positive");
+		}
+		this.loader = loader;
+		this.count = count;
+		this.pageSize = pageSize;
+		this.maxPages = maxPages;
+		this.placeholder = placeholder;
+		pages = new LinkedHashMap<Integer, List<E>>(maxPages * 2, 0.75f, true);
+		loading = new HashSet<Integer>();
+		failures = new HashMap<Integer, Integer>();
+		lastMissed = 0;
+		generation = 0;
+	}
+
+	@Override
+	public int getSize() {
+		return count;
+	}
+
+	/**
+	 * Gets a row or the placeholder if its page is not loaded yet. The page is
+	 * requested then and the row is updated when the page is loaded.
+	 */
+	@Override
+	public E getElementAt(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+		int page = index / pageSize;
+		List<E> rows = pages.get(page);
+		if (rows != null) {
+			int i = index - page * pageSize;
+			return i < rows.size() ? rows.get(i) : placeholder;
+		}
+		lastMissed = page;
+		request(page);
+		return placeholder;
+	}
+
+	/**
+	 * Checks whether a row is loaded.
+	 *
+	 * @param index
+	 *            The index of the row.
+	 * @return true if <code>getElementAt</code> returns the row, not the
+	 *         placeholder.
+	 */
+	public final boolean isLoaded(int index) {
+		return pages.containsKey(index / pageSize);
+	}
+
+	/**
+	 * Gets the placeholder.
+	 *
+	 * @return The element displayed while a row is loading.
+	 */
+	public final E getPlaceholder() {
+		return placeholder;
+	}
+
+	/**
+	 * Discards all pages, for example after the source changed. The displayed
+	 * rows are loaded again.
+	 *
+	 * @param count
+	 *            The new total number of rows.
+	 */
+	public final void refresh(int count) {
+		generation++;
+		pages.clear();
+		loading.clear();
+		failures.clear();
+		int n = Math.max(this.count, count);
+		this.count = count;
+		if (n > 0) {
+			fireContentsChanged(this, 0, n - 1);
+		}
+	}
+
+	private final void request(final int page) {
+		if (!loading.add(page)) {
+			return;
+		}
+		final int gen = generation;
+		final int offset = page * pageSize;
+		final int length = Math.min(pageSize, count - offset);
+		LOADER.execute(new Runnable() {
+			@Override
+			public void run() {
+				List<E> rows = null;
+				final boolean skipped = gen != generation || Math.abs(page - lastMissed) >= maxPages;
+				if (!skipped) {
+					try {
+						rows = loader.loadPage(offset, length);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+				final List<E> result = rows;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (gen != generation) {
+							return;
+						}
+						if (result != null) {
+							loading.remove(page);
+							failures.remove(page);
+							loaded(page, result);
+						} else if (skipped) {
+							// the rows ask for the page again if they are still displayed
+							loading.remove(page);
+							changed(page);
+						} else {
+							retryLater(page, gen);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Keeps a failed page from being requested until a delay passed, then lets
+	 * its rows ask for it again.
+	 */
+	private final void retryLater(final int page, final int gen) {
+		Integer n = failures.get(page);
+		int failed = n == null ? 1 : n + 1;
+		failures.put(page, failed);
+		int delay = (int) Math.min(MAX_RETRY_DELAY, (long) RETRY_DELAY << Math.min(failed - 1, 16));
+		Timer timer = new Timer(delay, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (gen == generation) {
+					loading.remove(page);
+					changed(page);
+				}
+			}
+		});
+		timer.setRepeats(false);
+		timer.start();
+	}
+
+	private final void loaded(int page, List<E> rows) {
+		pages.put(page, rows);
+		Iterator<Integer> it = pages.keySet().iterator();
+		while (pages.size() > maxPages && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+		changed(page);
+	}
+
+	private final void changed(int page) {
+		int offset = page * pageSize;
+		int last = Math.min(count, offset + pageSize) - 1;
+		if (last >= offset) {
+			fireContentsChanged(this, offset, last);
+		}
+	}
+}
@@ -0,0 +1,556 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui.models;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.swing.AbstractListModel;
+import javax.swing.ListModel;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+/**
+ * <code>SortedFilteredListModel</code> is a live view of another
+ * <code>ListModel</code>, like a <code>StringListModel</code>, that shows its
+ * elements sorted and filtered without copying them.
+ * <p>
+ * The view keeps the indices of all source elements in sorted order and the
+ * indices of the accepted elements as a subsequence of them. Modifications of
+ * the source are applied incrementally: an added element is inserted by binary
+ * search, a removed element is cut out. Only the affected rows of the view are
+ * reported to its listeners. Large modifications of the source rebuild the
+ * view.
+ * <p>
+ * Changing the filter keeps the order, so the elements are only tested, not
+ * sorted again. If the new filter accepts a subset of the elements of the
+ * current one, like a search text that was extended by typing,
+ * <code>refineFilter</code> only tests the elements currently shown.
+ * <p>
+ * Elements that compare equal are shown in the order of the source. The view
+ * must only be used on the event dispatch thread, like its source.
+ *
+ * @author Jan Buchinger
+ *
+ * @param <E>
+ *            The type of the elements.
+ *
+ * @see ListFilter
+ * @see StringListModel
+ */
+@SuppressWarnings("serial")
+public class SortedFilteredListModel<E> extends AbstractListModel<E> implements ListDataListener {
+	/**
+	 * Source modifications of more elements rebuild the view.
+	 */
+	private final static int BULK = 256;
+	/**
+	 * Filter changes that need more events fire a single change of all rows.
+	 */
+	private final static int MAX_EVENTS = 64;
+
+	private final ListModel<E> source;
+	private Comparator<? super E> comparator;
+	private ListFilter<? super E> filter;
+	private IntList order;
+	private IntList view;
+
+	/**
+	 * Constructs a view that shows all elements in the order of the source.
+	 *
+	 * @param source
+	 *            The model to view.
+	 */
+	public SortedFilteredListModel(ListModel<E> source) {
+		this(source, null, null);
+	}
+
+	/**
+	 * Constructs a new <code>SortedFilteredListModel</code>.
+	 *
+	 * @param source
+	 *            The model to view.
+	 * @param comparator
+	 *            The order of the elements or <code>null</code> for the order of
+	 *            the source.
+	 * @param filter
+	 *            The filter of the elements or <code>null</code> to show all
+	 *            elements.
+	 */
+	public SortedFilteredListModel(ListModel<E> source, Comparator<? super E> comparator,
+			ListFilter<? super E> filter) {
+		this.source = source;
+		this.comparator = comparator;
+		this.filter = filter;
+		sort();
+		view = filter(order);
+		source.addListDataListener(this);
+	}
+
+	@Override
+	public int getSize() {
+		return view.size;
+	}
+
+	@Override
+	public E getElementAt(int index) {
+		return source.getElementAt(view.get(index));
+	}
+
+	/**
+	 * Gets the index of a row of this view in the source.
+	 *
+	 * @param index
+	 *            The index in this view.
+	 * @return The index in the source.
+	 */
+	public final int convertIndexToSource(int index) {
+		return view.get(index);
+	}
+
+	/**
+	 * Gets the row of this view showing an element of the source.
+	 *
+	 * @param index
+	 *            The index in the source.
+	 * @return The index in this view or -1 if the element is filtered out.
+	 */
+	public final int convertIndexToView(int index) {
+		if (!accept(index)) {
+			return -1;
+		}
+		int pos = lowerBound(view, index);
+		return pos < view.size && view.get(pos) == index ? pos : -1;
+	}
+
+	/**
+	 * Sets the order of the elements. All elements are sorted again.
+	 *
+	 * @param comparator
+	 *            The order of the elements or <code>null</code> for the order of
+	 *            the source.
+	 */
+	public final void setComparator(Comparator<? super E> comparator) {
+		this.comparator = comparator;
+		int oldSize = view.size;
+		sort();
+		view = filter(order);
+		fireAll(oldSize);
+	}
+
+	/**
+	 * Sets the filter. All elements are tested.
+	 *
+	 * @param filter
+	 *            The filter of the elements or <code>null</code> to show all
+	 *            elements.
+	 */
+	public final void setFilter(ListFilter<? super E> filter) {
+		this.filter = filter;
+		setView(filter(order), order);
+	}
+
+	/**
+	 * Sets a filter that accepts no element the current filter rejects. Only
+	 * the elements shown now are tested.
+	 *
+	 * @param filter
+	 *            The stricter filter.
+	 */
+	public final void refineFilter(ListFilter<? super E> filter) {
+		this.filter = filter;
+		setView(filter(view), view);
+	}
+
+	/**
+	 * Gets the filter.
+	 *
+	 * @return The current filter or <code>null</code> if all elements are
+	 *         shown.
+	 */
+	public final ListFilter<? super E> getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Stops listening to the source, so this view can be garbage collected
+	 * while the source is still in use.
+	 */
+	public final void dispose() {
+		source.removeListDataListener(this);
+	}
+
+	@Override
+	public void intervalAdded(ListDataEvent e) {
+		int i0 = Math.min(e.getIndex0(), e.getIndex1());
+		int i1 = Math.max(e.getIndex0(), e.getIndex1());
+		int n = i1 - i0 + 1;
+		if (i0 < 0 || n > BULK || order.size + n != source.getSize()) {
+			rebuild();
+			return;
+		}
+		if (i0 < order.size) {
+			order.shift(i0, n);
+			view.shift(i0, n);
+		}
+		int pos;
+		for (int i = i0; i <= i1; i++) {
+			order.insert(lowerBound(order, i), i);
+			if (accept(i)) {
+				pos = lowerBound(view, i);
+				view.insert(pos, i);
+				fireIntervalAdded(this, pos, pos);
+			}
+		}
+	}
+
+	@Override
+	public void intervalRemoved(ListDataEvent e) {
+		int i0 = Math.min(e.getIndex0(), e.getIndex1());
+		int i1 = Math.max(e.getIndex0(), e.getIndex1());
+		int n = i1 - i0 + 1;
+		if (i0 < 0 || order.size - n != source.getSize()) {
+			rebuild();
+			return;
+		}
+		order.cut(i0, i1, true, null);
+		int oldSize = view.size;
+		IntList runs = new IntList(8);
+		view.cut(i0, i1, true, runs);
+		if (runs.size > MAX_EVENTS * 2) {
+			fireAll(oldSize);
+		} else {
+			// the last run first, so the indices of the others stay valid
+			for (int r = runs.size - 2; r >= 0; r -= 2) {
+				fireIntervalRemoved(this, runs.get(r), runs.get(r + 1));
+			}
+		}
+	}
+
+	@Override
+	public void contentsChanged(ListDataEvent e) {
+		int i0 = Math.min(e.getIndex0(), e.getIndex1());
+		int i1 = Math.max(e.getIndex0(), e.getIndex1());
+		if (i0 < 0 || i1 - i0 + 1 > BULK || order.size != source.getSize()) {
+			rebuild();
+			return;
+		}
+		if (i0 == i1) {
+			changed(i0);
+			return;
+		}
+		// all changed indices are cut out first, the binary search needs the
+		// rest to be sorted
+		order.cut(i0, i1, false, null);
+		int oldSize = view.size;
+		IntList runs = new IntList(8);
+		view.cut(i0, i1, false, runs);
+		for (int i = i0; i <= i1; i++) {
+			order.insert(lowerBound(order, i), i);
+		}
+		boolean all = runs.size > MAX_EVENTS * 2;
+		if (!all) {
+			for (int r = runs.size - 2; r >= 0; r -= 2) {
+				fireIntervalRemoved(this, runs.get(r), runs.get(r + 1));
+			}
+		}
+		int pos;
+		for (int i = i0; i <= i1; i++) {
+			if (accept(i)) {
+				pos = lowerBound(view, i);
+				view.insert(pos, i);
+				if (!all) {
+					fireIntervalAdded(this, pos, pos);
+				}
+			}
+		}
+		if (all) {
+			fireAll(oldSize);
+		}
+	}
+
+	/**
+	 * Moves a single changed element to its new position. A row that stays in
+	 * place is reported as changed.
+	 */
+	private final void changed(int i) {
+		order.remove(order.indexOf(i));
+		int p = view.indexOf(i);
+		if (p >= 0) {
+			view.remove(p);
+		}
+		order.insert(lowerBound(order, i), i);
+		int q = -1;
+		if (accept(i)) {
+			q = lowerBound(view, i);
+			view.insert(q, i);
+		}
+		if (p >= 0 && p == q) {
+			fireContentsChanged(this, p, p);
+		} else {
+			if (p >= 0) {
+				fireIntervalRemoved(this, p, p);
+			}
+			if (q >= 0) {
+				fireIntervalAdded(this, q, q);
+			}
+		}
+	}
+
+	private final boolean accept(int index) {
+		return filter == null || filter.accept(source.getElementAt(index));
+	}
+
+	/**
+	 * Compares two source indices by the comparator, then by the index.
+	 */
+	private final int compare(int a, int b) {
+		if (comparator != null) {
+			int c = comparator.compare(source.getElementAt(a), source.getElementAt(b));
+			if (c != 0) {
+				return c;
+			}
+		}
+		return a < b ? -1 : (a == b ? 0 : 1);
+	}
+
+	/**
+	 * Finds the first position in a sorted list whose element is not smaller
+	 * than the element at a source index.
+	 */
+	private final int lowerBound(IntList list, int index) {
+		int lo = 0;
+		int hi = list.size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(list.get(mid), index) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private final void sort() {
+		int n = source.getSize();
+		order = new IntList(n);
+		if (comparator == null) {
+			for (int i = 0; i < n; i++) {
+				order.add(i);
+			}
+			return;
+		}
+		Integer[] indices = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			indices[i] = i;
+		}
+		// stable, so equal elements keep the order of the source
+		Arrays.sort(indices, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return comparator.compare(source.getElementAt(a), source.getElementAt(b));
+			}
+		});
+		for (int i = 0; i < n; i++) {
+			order.add(indices[i]);
+		}
+	}
+
+	private final IntList filter(IntList from) {
+		if (filter == null) {
+			return from.copy();
+		}
+		IntList to = new IntList(from.size);
+		for (int i = 0; i < from.size; i++) {
+			if (accept(from.get(i))) {
+				to.add(from.get(i));
+			}
+		}
+		return to;
+	}
+
+	private final void rebuild() {
+		int oldSize = view.size;
+		sort();
+		view = filter(order);
+		fireAll(oldSize);
+	}
+
+	/**
+	 * Replaces the shown elements and fires the insertions and removals between
+	 * the old and the new elements. Both are subsequences of a walk, which is
+	 * traversed once.
+	 */
+	private final void setView(IntList newView, IntList walk) {
+		IntList oldView = view;
+		view = newView;
+		// triples of type (1 added, 2 removed), index0, index1
+		int[] events = new int[MAX_EVENTS * 3];
+		int nEvents = 0;
+		int i = 0;
+		int j = 0;
+		int p = 0;
+		int x;
+		boolean inOld, inNew;
+		for (int k = 0; k < walk.size && (i < oldView.size || j < newView.size); k++) {
+			x = walk.get(k);
+			inOld = i < oldView.size && oldView.get(i) == x;
+			inNew = j < newView.size && newView.get(j) == x;
+			if (inOld) {
+				i++;
+			}
+			if (inNew) {
+				j++;
+			}
+			if (inOld && inNew) {
+				p++;
+			} else if (inOld) {
+				if (nEvents > 0 && events[nEvents * 3 - 3] == 2 && events[nEvents * 3 - 2] == p) {
+					events[nEvents * 3 - 1]++;
+				} else if (nEvents == MAX_EVENTS) {
+					fireAll(oldView.size);
+					return;
+				} else {
+					events[nEvents * 3] = 2;
+					events[nEvents * 3 + 1] = p;
+					events[nEvents * 3 + 2] = p;
+					nEvents++;
+				}
+			} else if (inNew) {
+				if (nEvents > 0 && events[nEvents * 3 - 3] == 1 && events[nEvents * 3 - 1] == p - 1) {
+					events[nEvents * 3 - 1] = p;
+				} else if (nEvents == MAX_EVENTS) {
+					fireAll(oldView.size);
+					return;
+				} else {
+					events[nEvents * 3] = 1;
+					events[nEvents * 3 + 1] = p;
+					events[nEvents * 3 + 2] = p;
+					nEvents++;
+				}
+				p++;
+			}
+		}
+		for (int k = 0; k < nEvents; k++) {
+			if (events[k * 3] == 1) {
+				fireIntervalAdded(this, events[k * 3 + 1], events[k * 3 + 2]);
+			} else {
+				fireIntervalRemoved(this, events[k * 3 + 1], events[k * 3 + 2]);
+			}
+		}
+	}
+
+	private final void fireAll(int oldSize) {
+		int n = Math.max(oldSize, view.size);
+		if (n > 0) {
+			fireContentsChanged(this, 0, n - 1);
+		}
+	}
+
+	/**
+	 * A growable array of source indices.
+	 */
+	private final static class IntList {
+		private int[] a;
+		private int size;
+
+		private IntList(int capacity) {
+			a = new int[Math.max(capacity, 8)];
+			size = 0;
+		}
+
+		private int get(int i) {
+			if (i >= size) {
+				throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+			}
+			return a[i];
+		}
+
+		private void add(int v) {
+			insert(size, v);
+		}
+
+		private void insert(int pos, int v) {
+			if (size == a.length) {
+				a = Arrays.copyOf(a, a.length + (a.length >> 1));
+			}
+			System.arraycopy(a, pos, a, pos + 1, size - pos);
+			a[pos] = v;
+			size++;
+		}
+
+		private void remove(int pos) {
+			System.arraycopy(a, pos + 1, a, pos, size - pos - 1);
+			size--;
+		}
+
+		private int indexOf(int v) {
+			for (int i = 0; i < size; i++) {
+				if (a[i] == v) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Adds n to all indices from a source index on, for inserted elements.
+		 */
+		private void shift(int from, int n) {
+			for (int i = 0; i < size; i++) {
+				if (a[i] >= from) {
+					a[i] += n;
+				}
+			}
+		}
+
+		/**
+		 * Removes the indices of removed or changed source elements and, if shift
+		 * is true, moves the following ones down. The positions of the removed
+		 * indices are added to runs as pairs of the first and last position, if
+		 * runs is not null.
+		 */
+		private void cut(int i0, int i1, boolean shift, IntList runs) {
+			int n = i1 - i0 + 1;
+			int w = 0;
+			int v;
+			for (int r = 0; r < size; r++) {
+				v = a[r];
+				if (v < i0) {
+					a[w++] = v;
+				} else if (v > i1) {
+					a[w++] = shift ? v - n : v;
+				} else if (runs != null) {
+					if (runs.size > 0 && runs.a[runs.size - 1] == r - 1) {
+						runs.a[runs.size - 1] = r;
+					} else {
+						runs.add(r);
+						runs.add(r);
+					}
+				}
+			}
+			size = w;
+		}
+
+		private IntList copy() {
+			IntList c = new IntList(size);
+			System.arraycopy(a, 0, c.a, 0, size);
+			c.size = size;
+			return c;
+		}
+	}
+}
@@ -15,38 +15,56 @@
  */
 package net.janbuchinger.code.mishmash.ui.models;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Vector;
 
 import javax.swing.DefaultListModel;
+import javax.swing.SwingUtilities;
 
 /**
  * <code>StringListModel</code> is a list model for <code>JList</code> that
  * manages a string list.
- * 
+ * <p>
+ * Every modification fires an event for exactly the affected rows, so
+ * <code>JList</code> and views like <code>SortedFilteredListModel</code> only
+ * update these rows.
+ * <p>
+ * The strings are stored in an unsynchronized <code>ArrayList</code>, the
+ * model must only be used on the event dispatch thread. With assertions
+ * enabled (<code>-ea</code>) modifications from other threads fail. Background
+ * loaders hand their results over by <code>publishStrings</code>.
+ * <p>
+ * The strings are only modified through the model, there is no modifiable
+ * list of them to alter externally.
  * 
  * @author Jan Buchinger
  * 
+ * @see SortedFilteredListModel
  */
 @SuppressWarnings("serial")
 public class StringListModel extends DefaultListModel<String> {
-	private Vector<String> data;
+	private ArrayList<String> data;
 
 	/**
 	 * Instantiates <code>StringListModel</code> and initiates a new list of
 	 * <code>String</code>s.
 	 */
 	public StringListModel() {
-		data = new Vector<String>();
+		data = new ArrayList<String>();
 	}
 
 	/**
 	 * Instantiates <code>StringListModel</code> with the specified list.
 	 * 
 	 * @param data
-	 *            The list of <code>String</code>s to use.
+	 *            The list of <code>String</code>s to use. It is copied, later
+	 *            modifications of it do not show in the model.
 	 */
 	public StringListModel(Vector<String> data) {
-		this.data = data;
+		this.data = new ArrayList<String>(data);
 	}
 
 	@Override
@@ -69,35 +87,161 @@ public class StringListModel extends DefaultListModel<String> {
 		return get(index);
 	}
 
+	@Override
+	public int size() {
+		return data.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return data.isEmpty();
+	}
+
+	@Override
+	public boolean contains(Object elem) {
+		return data.contains(elem);
+	}
+
+	@Override
+	public int indexOf(Object elem) {
+		return data.indexOf(elem);
+	}
+
 	@Override
 	public void addElement(String element) {
+		checkThread();
 		data.add(element);
-		fireContentsChanged(this, 0, getSize() - 1);
+		fireIntervalAdded(this, data.size() - 1, data.size() - 1);
+	}
+
+	@Override
+	public void add(int index, String element) {
+		checkThread();
+		data.add(index, element);
+		fireIntervalAdded(this, index, index);
+	}
+
+	@Override
+	public void insertElementAt(String element, int index) {
+		add(index, element);
+	}
+
+	@Override
+	public String set(int index, String element) {
+		checkThread();
+		String x = data.set(index, element);
+		fireContentsChanged(this, index, index);
+		return x;
+	}
+
+	@Override
+	public void setElementAt(String element, int index) {
+		set(index, element);
 	}
 
 	@Override
 	public String remove(int index) {
+		checkThread();
 		String x = data.remove(index);
-		fireContentsChanged(this, 0, getSize() - 1);
+		fireIntervalRemoved(this, index, index);
 		return x;
 	}
 
+	@Override
+	public void removeElementAt(int index) {
+		remove(index);
+	}
+
+	@Override
+	public boolean removeElement(Object obj) {
+		int index = data.indexOf(obj);
+		if (index < 0) {
+			return false;
+		}
+		remove(index);
+		return true;
+	}
+
+	@Override
+	public void removeRange(int fromIndex, int toIndex) {
+		if (fromIndex > toIndex) {
+			throw new IllegalArgumentException("fromIndex must be <= toIndex");
+		}
+		checkThread();
+		data.subList(fromIndex, toIndex + 1).clear();
+		fireIntervalRemoved(this, fromIndex, toIndex);
+	}
+
+	@Override
+	public void clear() {
+		checkThread();
+		int n = data.size();
+		if (n > 0) {
+			data.clear();
+			fireIntervalRemoved(this, 0, n - 1);
+		}
+	}
+
+	@Override
+	public void removeAllElements() {
+		clear();
+	}
+
 	/**
-	 * Gets the <code>String</code> list.
+	 * Gets a read only view of the strings.
 	 * 
-	 * @return The <code>String</code> list.
+	 * @return The strings of this model, the view reflects later modifications.
 	 */
-	public Vector<String> getStrings() {
-		return data;
+	public final List<String> asList() {
+		return Collections.unmodifiableList(data);
 	}
 
 	/**
 	 * Sets the <code>String</code> list and fires contents changed.
 	 * 
-	 * @param data The new list.
+	 * @param data The new list. It is copied, later modifications of it do
+	 *            not show in the model.
 	 */
 	public void setStrings(Vector<String> data) {
+		setList(new ArrayList<String>(data));
+	}
+
+	private final void setList(ArrayList<String> data) {
+		checkThread();
+		int n = Math.max(this.data.size(), data.size());
 		this.data = data;
-		fireContentsChanged(this, 0, getSize() - 1);
+		if (n > 0) {
+			fireContentsChanged(this, 0, n - 1);
+		}
+	}
+
+	/**
+	 * Sets the <code>String</code> list on the event dispatch thread. It can be
+	 * called from any thread, the strings are copied on the calling thread.
+	 * 
+	 * @param data
+	 *            The new strings.
+	 */
+	public final void publishStrings(Collection<String> data) {
+		final ArrayList<String> copy = new ArrayList<String>(data);
+		if (SwingUtilities.isEventDispatchThread()) {
+			setList(copy);
+		} else {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					setList(copy);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Fails if assertions are enabled and the calling thread is not the event
+	 * dispatch thread.
+	 */
+	private final void checkThread() {
+		assert SwingUtilities.isEventDispatchThread() : "StringListModel modified outside of the event "
+				+ "dispatch thread";
 	}
 }
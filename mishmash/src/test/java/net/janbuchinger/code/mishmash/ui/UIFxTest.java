@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 Jan Buchinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.janbuchinger.code.mishmash.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.text.Format;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Stress test for the per thread formats of <code>UIFx</code>.
+ *
+ * @author Jan Buchinger
+ */
+public class UIFxTest {
+	private final static int THREADS = 16;
+	private final static int ROUNDS = 2000;
+	private final static int VALUES = 256;
+
+	/**
+	 * Creates a new instance of every format, in the order of
+	 * <code>getFormats()</code>.
+	 */
+	private final static Format[] initFormats() {
+		return new Format[] { UIFx.initDecimalFormat(), UIFx.initIntegerFormat(),
+				UIFx.initVeryPreciseDisplayDateTimeFormat(), UIFx.initPreciseDisplayDateTimeFormat(),
+				UIFx.initDisplayDateTimeFormat(), UIFx.initDisplayDateFormat(), UIFx.initDisplayTimeFormat() };
+	}
+
+	/**
+	 * Gets the calling thread's instance of every format.
+	 */
+	private final static Format[] getFormats() {
+		return new Format[] { UIFx.getDecimalFormat(), UIFx.getIntegerFormat(),
+				UIFx.getVeryPreciseDateTimeFormat(), UIFx.getPreciseDateTimeFormat(), UIFx.getDateTimeFormat(),
+				UIFx.getDateFormat(), UIFx.getTimeFormat() };
+	}
+
+	private final static Object value(int format, long v) {
+		switch (format) {
+		case 0:
+			return v / 1000.0;
+		case 1:
+			return v;
+		default:
+			return new Date(v);
+		}
+	}
+
+	@Test
+	public void testSameInstancePerThread() throws Exception {
+		final Format[] mine = getFormats();
+		Format[] again = getFormats();
+		for (int i = 0; i < mine.length; i++) {
+			assertSame(mine[i], again[i]);
+		}
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			Format[] other = pool.submit(new Callable<Format[]>() {
+				@Override
+				public Format[] call() {
+					return getFormats();
+				}
+			}).get();
+			for (int i = 0; i < mine.length; i++) {
+				assertNotSame(mine[i], other[i]);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Formats the same values from many threads at once through all getters and
+	 * compares every result with the result of a format used by one thread only.
+	 */
+	@Test
+	public void testConcurrentFormatting() throws Exception {
+		Random random = new Random(42);
+		final long[] values = new long[VALUES];
+		for (int i = 0; i < VALUES; i++) {
+			// dates between 1970 and 2100, numbers up to 12 digits
+			values[i] = (long) (random.nextDouble() * 4102444800000L);
+		}
+		Format[] single = initFormats();
+		final String[][] expected = new String[single.length][VALUES];
+		for (int f = 0; f < single.length; f++) {
+			for (int i = 0; i < VALUES; i++) {
+				expected[f][i] = single[f].format(value(f, values[i]));
+			}
+		}
+
+		final CyclicBarrier start = new CyclicBarrier(THREADS);
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int t = 0; t < THREADS; t++) {
+				final int offset = t * 7;
+				futures.add(pool.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						start.await();
+						int n = 0;
+						for (int r = 0; r < ROUNDS; r++) {
+							// fetched every round to hammer the getters too
+							Format[] formats = getFormats();
+							int i = (offset + r) % VALUES;
+							for (int f = 0; f < formats.length; f++) {
+								assertEquals(expected[f][i], formats[f].format(value(f, values[i])));
+								n++;
+							}
+						}
+						return n;
+					}
+				}));
+			}
+			int total = 0;
+			for (Future<Integer> future : futures) {
+				total += future.get(60, TimeUnit.SECONDS);
+			}
+			assertEquals(THREADS * ROUNDS * single.length, total);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}